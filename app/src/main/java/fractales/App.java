@@ -1,10 +1,22 @@
 package fractales;
 
 import fractales.model.*;
+import fractales.model.Fractal.RenderStrategy;
 import fractales.utils.FractalImage;
+import fractales.utils.DivergenceIndexMatrixCalculator;
+import fractales.utils.RenderEngine;
+import fractales.utils.StreamedImage;
+import fractales.utils.PngWriter;
+import fractales.utils.FractalBinary;
+import fractales.utils.RenderCache;
+import fractales.utils.RenderListener;
+import fractales.utils.RenderHandle;
+import java.util.concurrent.CancellationException;
 import java.util.function.Function;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import javax.imageio.ImageIO;
 import java.awt.Color;
 import javafx.application.Application;
@@ -109,6 +121,13 @@ public class App extends Application {
 	.desc("Mandelbrot generation")
 	.build();
 
+    // Mandelbrot options only
+    private static final Option INTERIOR_OPT =
+	Option.builder("interior")
+	.longOpt("interiorDetection")
+	.desc("Detects early the points inside the Mandelbrot set")
+	.build();
+
     // Julia options only
     private static final Option COMPLEX_CST_OPT =
 	Option.builder("constant")
@@ -128,6 +147,111 @@ public class App extends Application {
 	.desc("The iteration function")
 	.build();
 
+    // rendering options
+    private static final Option SIMD_OPT =
+	Option.builder("simd")
+	.longOpt("vectorKernel")
+	.desc("Computes divergence indices with the SIMD kernel when the "
+	      + "jdk.incubator.vector module is present")
+	.build();
+
+    private static final Option THREADS_OPT =
+	Option.builder("threads")
+	.hasArg()
+	.valueSeparator()
+	.desc("Sets the number of threads used to compute the fractal")
+	.build();
+
+    private static final Option MARIANI_SILVER_OPT =
+	Option.builder("ms")
+	.longOpt("marianiSilver")
+	.desc("Fills the rectangles whose border has a single divergence "
+	      + "index instead of computing every pixel")
+	.build();
+
+    private static final Option NO_MIRROR_OPT =
+	Option.builder("noMirror")
+	.desc("Computes every pixel of a symmetric fractal instead of "
+	      + "copying the pixels symmetric of a computed one")
+	.build();
+
+    private static final Option VALIDATE_OPT =
+	Option.builder("validate")
+	.desc("Counts the pixels computed differently by the Mariani-Silver "
+	      + "strategy than by computing every pixel")
+	.build();
+
+    private static final Option IMAGE_ONLY_OPT =
+	Option.builder("imageOnly")
+	.desc("Does not keep the divergence indices once the image is colored")
+	.build();
+
+    private static final Option STREAM_OPT =
+	Option.builder("stream")
+	.desc("Writes the image band after band instead of holding it in "
+	      + "memory, chosen by default for images larger than half the "
+	      + "heap")
+	.build();
+
+    private static final Option PROGRESSIVE_OPT =
+	Option.builder("progressive")
+	.desc("Computes the fractal in passes of decreasing stride, saving "
+	      + "the preview of each pass in /tmp/<name>_<stride>.png")
+	.build();
+
+    private static final Option TIMEOUT_OPT =
+	Option.builder("timeout")
+	.hasArg()
+	.valueSeparator()
+	.desc("Cancels the rendering and exits if it takes more than the "
+	      + "given number of seconds")
+	.build();
+
+    private static final Option NO_CACHE_OPT =
+	Option.builder("noCache")
+	.desc("Computes the fractal even if its divergence indices are "
+	      + "cached in " + RenderCache.DEFAULT_DIRECTORY)
+	.build();
+
+    private static final Option LOAD_OPT =
+	Option.builder("load")
+	.hasArg()
+	.valueSeparator()
+	.desc("Saves the image of the fractal saved in the given .frac file "
+	      + "without computing it, with the colors of -colorFun if given")
+	.build();
+
+    private static final Option FRAC_OPT =
+	Option.builder("frac")
+	.desc("Also saves the fractal and its divergence indices in "
+	      + "/tmp/<name>.frac, to be loaded with -load")
+	.build();
+
+    private static final Option COMPRESSION_OPT =
+	Option.builder("compression")
+	.hasArg()
+	.valueSeparator()
+	.desc("Sets the compression level of the PNG image, from 0 that "
+	      + "only stores the pixels, fastest, to 9 that gives the "
+	      + "smallest file")
+	.build();
+
+    private static final Option INDICES_OPT =
+	Option.builder("indices")
+	.hasArg()
+	.valueSeparator()
+	.desc("Keeps the divergence indices in the given file, mapped in "
+	      + "memory, and reuses them if the file holds those of the "
+	      + "fractal")
+	.build();
+
+    private static final Option TILE_OPT =
+	Option.builder("tile")
+	.longOpt("tileSize")
+	.hasArg()
+	.valueSeparator()
+	.desc("Sets the side in pixels of the tiles computed by a thread")
+	.build();
 
     @Override
     public void start(Stage primaryStage) throws IOException {
@@ -142,6 +266,27 @@ public class App extends Application {
 	primaryStage.show();
     }
 
+    @Override
+    public void stop(){
+	// releases the threads of the render pool on exit
+	RenderEngine.shutdown();
+    }
+
+    // saves the pixels of a pass of a progressive rendering
+    private static void savePreview(Fractal fractal, int[] pixels,
+				    int stride){
+	File file = new File("/tmp/" + fractal.getFileName() + "_" + stride
+			     + ".png");
+	try(PngWriter png = PngWriter.of(file, fractal.getWidth(),
+					 fractal.getHeight())){
+	    png.writeRows(pixels, 0, fractal.getWidth(), fractal.getHeight());
+	} catch(IOException e){
+	    throw new UncheckedIOException(e);
+	}
+	System.out.println("Preview of stride " + stride + " saved at "
+			   + file.getAbsolutePath());
+    }
+
     public static void main(String[] args) {
 
 	// add all options to implemented options list
@@ -161,6 +306,22 @@ public class App extends Application {
 	options.addOption(MANDELBROT_OPT);
 	options.addOption(COMPLEX_CST_OPT);
 	options.addOption(ITER_FUN_OPT);
+	options.addOption(INTERIOR_OPT);
+	options.addOption(SIMD_OPT);
+	options.addOption(THREADS_OPT);
+	options.addOption(TILE_OPT);
+	options.addOption(MARIANI_SILVER_OPT);
+	options.addOption(NO_MIRROR_OPT);
+	options.addOption(VALIDATE_OPT);
+	options.addOption(IMAGE_ONLY_OPT);
+	options.addOption(STREAM_OPT);
+	options.addOption(INDICES_OPT);
+	options.addOption(COMPRESSION_OPT);
+	options.addOption(LOAD_OPT);
+	options.addOption(FRAC_OPT);
+	options.addOption(NO_CACHE_OPT);
+	options.addOption(PROGRESSIVE_OPT);
+	options.addOption(TIMEOUT_OPT);
 
 	String set = "";
 
@@ -180,6 +341,27 @@ public class App extends Application {
 		launch(args);
 	    } else { // launches console version
 
+		// colors a saved fractal without computing it
+		if(commandLine.hasOption("load")){
+		    FractalBinary fb = FractalBinary
+			.read(new File(commandLine.getOptionValue("load")));
+		    Fractal fractal = fb.getFractal();
+		    if(commandLine.hasOption("colorFun")){
+			String[] colors = commandLine.getOptionValues("colorFun");
+			fractal =
+			    fractal.withColorFunction(Float.parseFloat(colors[0]),
+						      Float.parseFloat(colors[1]),
+						      Float.parseFloat(colors[2]));
+		    }
+		    FractalImage fi =
+			FractalImage.of(fractal, fb.getDivergenceBuffer());
+		    System.out.println("Saving...");
+		    fi.saveFile();
+		    System.out.println("Saved at " + fi.getPath());
+		    RenderEngine.shutdown();
+		    System.exit(0);
+		}
+
     // must take exactly one of the two args
 		// can only generate one fractal
 		if(commandLine.hasOption("julia")
@@ -233,6 +415,10 @@ public class App extends Application {
 		    }
 		} else if (commandLine.hasOption("mandelbrot")){
 		    set = "mandelbrot";
+
+		    if(commandLine.hasOption("interior")){
+			mandelbrotBuilder.interiorDetection(true);
+		    }
 		}
 
 		// parse iteration input
@@ -356,6 +542,51 @@ public class App extends Application {
 		    }
 		}
 
+		// selects the kernel used for divergence computing
+		if(commandLine.hasOption("simd")){
+		    if(!DivergenceIndexMatrixCalculator.setVectorized(true))
+			System.out.println("Vector API not available, "
+					   + "using scalar kernel");
+		}
+
+		// parse number of threads input
+		if(commandLine.hasOption("threads")){
+		    int threads =
+			Integer.parseInt(commandLine.getOptionValue("threads"));
+		    RenderEngine.setParallelism(threads);
+		}
+
+		// parse tile size input
+		if(commandLine.hasOption("tile")){
+		    int tileSize =
+			Integer.parseInt(commandLine.getOptionValue("tile"));
+		    RenderEngine.setTileSize(tileSize);
+		}
+
+		// parse compression level input
+		if(commandLine.hasOption("compression")){
+		    int level = Integer
+			.parseInt(commandLine.getOptionValue("compression"));
+		    PngWriter.setCompressionLevel(level);
+		}
+
+		// computes the symmetric pixels as well
+		if(commandLine.hasOption("noMirror")){
+		    RenderEngine.setMirroring(false);
+		}
+
+		// disables the cache of divergence indices
+		if(commandLine.hasOption("noCache")){
+		    RenderEngine.setCache(null);
+		}
+
+		// selects the render strategy
+		if(commandLine.hasOption("ms")){
+		    juliaBuilder.renderStrategy(RenderStrategy.MARIANI_SILVER);
+		    mandelbrotBuilder
+			.renderStrategy(RenderStrategy.MARIANI_SILVER);
+		}
+
 		Fractal fractal = null;
 		if(set.equals("julia")){
 		    fractal = juliaBuilder.build();
@@ -363,10 +594,102 @@ public class App extends Application {
 		    fractal = mandelbrotBuilder.build();
 		}
 
-		FractalImage fi = FractalImage.of(fractal);
-		System.out.println("Saving...");
-		fi.saveFile();
-		System.out.println("Saved at " + fi.getPath());
+		// compares the render strategies instead of saving
+		if(commandLine.hasOption("validate")){
+		    long errors = RenderEngine.countMarianiSilverErrors(fractal);
+		    System.out.println(errors + " of "
+				       + ((long)fractal.getWidth()
+					  * fractal.getHeight())
+				       + " pixels differ with Mariani-Silver");
+		    RenderEngine.shutdown();
+		    System.exit(0);
+		}
+
+		// keeps the indices on disk and colors them band after band
+		boolean frac = commandLine.hasOption("frac");
+		boolean keep = frac || !commandLine.hasOption("imageOnly");
+		boolean streamed = commandLine.hasOption("indices")
+		    || commandLine.hasOption("stream")
+		    || StreamedImage.isNeeded(fractal, keep);
+		// the bands are written as they are computed
+		if(streamed && commandLine.hasOption("timeout")){
+		    System.out.println("-timeout cannot cancel a streamed "
+				       + "image, written band after band");
+		    RenderEngine.shutdown();
+		    System.exit(-1);
+		}
+		if(commandLine.hasOption("indices")){
+		    Path path = Paths.get(commandLine.getOptionValue("indices"));
+		    System.out.println("Computing indices...");
+		    try(MappedDivergenceBuffer buffer =
+			RenderEngine.mapDivergenceBuffer(fractal, path)){
+			StreamedImage si = StreamedImage.of(fractal, buffer);
+			System.out.println("Streaming...");
+			si.saveFile();
+			System.out.println("Saved at " + si.getPath()
+					   + ", indices at " + path);
+			if(frac)
+			    FractalBinary.of(fractal, buffer).saveFile();
+		    }
+		} else if(streamed){
+		    StreamedImage si = StreamedImage.of(fractal);
+		    System.out.println("Streaming...");
+		    si.saveFile();
+		    System.out.println("Saved at " + si.getPath());
+		    if(frac)
+			System.out.println("The streamed indices are not kept, "
+					   + "use -indices to save the .frac");
+		} else if(commandLine.hasOption("progressive")
+			  || commandLine.hasOption("timeout")){
+		    // the pixels rendered are saved as they are
+		    FractalImage fi = FractalImage.of(fractal, keep);
+		    int[] pixels = new int[fractal.getWidth()
+					   * fractal.getHeight()];
+		    Fractal previewed = fractal;
+		    long timeout = commandLine.hasOption("timeout")
+			? (long)(1000 * Double.parseDouble(commandLine
+							   .getOptionValue("timeout")))
+			: 0;
+		    RenderHandle handle =
+			fi.submit(pixels, commandLine.hasOption("progressive"),
+				  new RenderListener(){
+				      @Override
+				      public void tileRendered(int x0, int y0,
+							       int x1, int y1){
+				      }
+
+				      @Override
+				      public void passRendered(int stride){
+					  if(stride > 1)
+					      savePreview(previewed, pixels,
+							  stride);
+				      }
+				  }, timeout);
+		    try {
+			handle.join();
+		    } catch(CancellationException e){
+			System.out.println("Rendering cancelled after "
+					   + commandLine.getOptionValue("timeout")
+					   + " seconds");
+			RenderEngine.shutdown();
+			System.exit(-1);
+		    }
+		    System.out.println("Saving...");
+		    fi.saveFile(pixels);
+		    if(frac)
+			fi.saveBinary();
+		    System.out.println("Saved at " + fi.getPath());
+		} else {
+		    FractalImage fi = FractalImage.of(fractal, keep);
+		    System.out.println("Saving...");
+		    fi.saveFile();
+		    if(frac)
+			fi.saveBinary();
+		    System.out.println("Saved at " + fi.getPath());
+		}
+		if(RenderEngine.getCache() != null)
+		    System.out.println("Cache : " + RenderEngine.getCache());
+		RenderEngine.shutdown();
 		System.out.println("Exiting");
 		System.exit(0);
 	    }
@@ -1,15 +1,47 @@
 package fractales.controller;
 
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import fractales.model.*;
 import fractales.model.Fractal.FractalType;
 import fractales.utils.*;
 import java.util.*;
+import java.io.File;
+import java.io.IOException;
 import javafx.scene.image.*;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.util.Duration;
 
 public class Controller {
 
+    // size in pixels of the images rendered while exploring, the one of
+    // the image view
+    private static final int VIEW_WIDTH = 1360;
+    private static final int VIEW_HEIGHT = 1000;
+
+    // size in pixels of the Mandelbrot map of the Julia constants, and of
+    // the previews of the Julia sets pointed on it
+    private static final int MAP_WIDTH = 180;
+    private static final int MAP_HEIGHT = 135;
+    private static final int PREVIEW_WIDTH = VIEW_WIDTH / 4;
+    private static final int PREVIEW_HEIGHT = VIEW_HEIGHT / 4;
+
+    // time given to the frames rendered while moving the view, and time
+    // without moving it after which the view is rendered in full
+    private static final long FRAME_BUDGET_MILLIS = 50;
+    private static final long IDLE_MILLIS = 250;
+
+    // time given to a Julia preview
+    private static final long PREVIEW_BUDGET_MILLIS = 30;
+
+    // the quadrants of the view that can be zoomed into
+    private static final String[] ZOOM_ZONES =
+	{"TOP LEFT", "TOP RIGHT", "BOTTOM LEFT", "BOTTOM RIGHT"};
+
     // fractal selection
     @FXML private MenuButton fractalSelection;
 
@@ -67,14 +99,100 @@ public class Controller {
     // height of the image
     @FXML private TextField imageHeightInput;
 
+    // number of threads used for the rendering
+    @FXML private TextField threadsInput;
+
+    // the hue, saturation and brightness factors of the colors
+    @FXML private TextField alphaColorInput;
+    @FXML private TextField betaColorInput;
+    @FXML private TextField gammaColorInput;
+
+    // the button for changing the colors of the displayed fractal
+    @FXML private Button recolorButton;
+
     @FXML private Label stateLabel;
 
-    // the fractal to build
+    // the progress of the rendering
+    @FXML private ProgressBar renderProgress;
+
+    // the button cancelling the rendering
+    @FXML private Button cancelButton;
+
+    // renders a rough image first, refined afterwards, if selected
+    @FXML private CheckBox progressiveCheck;
+
+    // the rendering in progress, null if none
+    private RenderTask renderTask;
+
+    // copies the tiles rendered to the displayed image once per pulse
+    private final AnimationTimer pulse = new AnimationTimer(){
+	    @Override
+	    public void handle(long now){
+		if(renderTask != null)
+		    renderTask.flush();
+	    }
+	};
+
+    // the fractal to build, exported at full resolution
     private Fractal fractalToBuild;
 
-    // the fractal image
+    // the image of the fractal to build if already computed, or null
+    private FractalImage exportImage;
+
+    // the step of the view divided by the one of the fractal to build
+    private double exportScale;
+
+    // the button saving the fractal to build at full resolution
+    @FXML private Button exportButton;
+
+    // saves the divergence indices in a .frac file as well, if selected
+    @FXML private CheckBox fracCheck;
+
+    // the fractal image displayed
     private FractalImage fractalImage;
 
+    // the fractal of the last view rendered or being rendered
+    private Fractal view;
+
+    // the fractal of the last image rendered or being rendered, the view
+    // or a frame of lower resolution
+    private Fractal frame;
+
+    // chooses the frames rendered while moving the view
+    private final FrameBudget budget = FrameBudget.of(FRAME_BUDGET_MILLIS);
+
+    // renders the view in full once it is no longer moved
+    private final PauseTransition idle =
+	new PauseTransition(Duration.millis(IDLE_MILLIS));
+
+    // the speculative rendering of the quadrants of the view, null if none
+    private PrefetchTask prefetchTask;
+
+    // the position of the mouse at the last drag event
+    private double dragX;
+    private double dragY;
+
+    // the image of the view, displayed again after the Julia previews
+    private Image viewImage;
+
+    // the Mandelbrot map of the Julia constants
+    @FXML private ImageView parameterMap;
+
+    // the fractal of the map, null until it is rendered
+    private Mandelbrot map;
+
+    // chooses the resolution and iterations of the Julia previews
+    private final FrameBudget previewBudget =
+	FrameBudget.of(PREVIEW_BUDGET_MILLIS);
+
+    // the constant of the next Julia preview, null if none is waiting
+    private Complex previewConstant;
+
+    // true while a Julia preview is rendered, and while the mouse points
+    // a constant on the map
+    private boolean previewing;
+    private boolean exploring;
+
     // the image view that displays the fractal image
     @FXML private ImageView fractalDisplay;
 
@@ -84,9 +202,6 @@ public class Controller {
     // the selection for the zoom zone
     @FXML private MenuButton zoomZoneSelection;
 
-    //The last fractal generated
-    private String lastFractal;
-
     // the name of the build file
     @FXML private TextField buildFromFileInput;
 
@@ -104,6 +219,21 @@ public class Controller {
 	zoomInButton.setOnAction(e -> zoomInAction());
 	zoomInButton.setDisable(true);
 	buildFromFileButton.setOnAction(e -> buildFromFile());
+	recolorButton.setOnAction(e -> recolorAction());
+	recolorButton.setDisable(true);
+	cancelButton.setOnAction(e -> cancelRender());
+	cancelButton.setDisable(true);
+	exportButton.setOnAction(e -> exportAction());
+	exportButton.setDisable(true);
+	renderProgress.setProgress(0);
+	fractalDisplay.setOnScroll(e -> scrollAction(e));
+	fractalDisplay.setOnMousePressed(e -> {
+		dragX = e.getX();
+		dragY = e.getY();
+	    });
+	fractalDisplay.setOnMouseDragged(e -> dragAction(e));
+	idle.setOnFinished(e -> refineView());
+	initParameterMap();
     }
 
     // tries to read a double input
@@ -124,6 +254,22 @@ public class Controller {
 	throw new IllegalArgumentException();
     }
 
+    // tries to read a float input
+    private float readFloatInput(TextField floatInput)
+	throws IllegalArgumentException {
+	Scanner sc = new Scanner(floatInput.getText());
+	if(sc.hasNextFloat())
+	    return sc.nextFloat();
+	throw new IllegalArgumentException();
+    }
+
+    // returns true if the color factors are all given
+    private boolean isColorInputGiven(){
+	return isInputGiven(alphaColorInput)
+	    && isInputGiven(betaColorInput)
+	    && isInputGiven(gammaColorInput);
+    }
+
     // returns true if the text field is not empty, false otherwise
     private boolean isInputGiven(TextField input){
 	return input.getLength() > 0;
@@ -197,6 +343,14 @@ public class Controller {
 	    builder = builder.imageHeight(h);
 	}
 
+	// read color factors if given
+	if(isColorInputGiven()){
+	    float a = readFloatInput(alphaColorInput);
+	    float b = readFloatInput(betaColorInput);
+	    float g = readFloatInput(gammaColorInput);
+	    builder = builder.colorFunction(a, b, g);
+	}
+
 	// read filename
 	if(isInputGiven(filenameInput)){
 	    String n = filenameInput.getText();
@@ -244,6 +398,14 @@ public class Controller {
 	    builder = builder.imageHeight(h);
 	}
 
+	// read color factors if given
+	if(isColorInputGiven()){
+	    float a = readFloatInput(alphaColorInput);
+	    float b = readFloatInput(betaColorInput);
+	    float g = readFloatInput(gammaColorInput);
+	    builder = builder.colorFunction(a, b, g);
+	}
+
 	// read filename
 	if(isInputGiven(filenameInput)){
 	    String n = filenameInput.getText();
@@ -255,13 +417,16 @@ public class Controller {
     // builds the fractal
     private void buildFractal(){
 	try {
+	    // read number of threads if given
+	    if(isInputGiven(threadsInput)){
+		int t = readIntInput(threadsInput);
+		RenderEngine.setParallelism(t);
+	    }
 	    if(fractalSelected.getText() == FractalType.JULIA.name()){
 		fractalToBuild = buildJuliaFractal();
-		lastFractal = "Julia";
 	    }
 	    if(fractalSelected.getText() == FractalType.MANDELBROT.name()){
 		fractalToBuild = buildMandelbrotFractal();
-		lastFractal = "Mandelbrot";
 	    }
 	} catch(Exception e){
 	    showErrorAlert();
@@ -270,20 +435,411 @@ public class Controller {
 	if(fractalToBuild != null){
 	    fractalSelected.setText("Select a fractal to build");
 	    buildButton.setDisable(true);
-	    buildFromFileButton.setDisable(true);
-	    fractalImage = FractalImage.of(fractalToBuild);
-	    fractalImage.saveFile(); // saves the png image
-	    displayImage(); // displays it onto the screen
-	    zoomInButton.setDisable(false);
-	    buildFromFileButton.setDisable(false);
+	    exportImage = null;
+	    startView(fractalToBuild, "built");
+	}
+    }
+
+    // returns the fractal showing the whole image of the specified one in
+    // an image of the specified size
+    private static Fractal fit(Fractal fractal, int width, int height){
+	double step = fractal.getDiscreteStep()
+	    * Math.max((fractal.getWidth() - 1.0) / (width - 1),
+		       (fractal.getHeight() - 1.0) / (height - 1));
+	double centerX = fractal.getXMin()
+	    + fractal.getDiscreteStep() * (fractal.getWidth() - 1) / 2;
+	double centerY = fractal.getYMax()
+	    - fractal.getDiscreteStep() * (fractal.getHeight() - 1) / 2;
+	return fractal.withWindow(centerX - step * (width - 1) / 2,
+				  centerY + step * (height - 1) / 2,
+				  step, width, height);
+    }
+
+    // returns the fractal showing the whole image of the specified one in
+    // an image of the specified size, no larger than the image, whose
+    // grid is made of every k-th point of the grid of the image
+    private static Fractal fitOnGrid(Fractal fractal, int width,
+				     int height){
+	int k = (int)Math.ceil(Math.max((fractal.getWidth() - 1.0)
+					/ (width - 1),
+					(fractal.getHeight() - 1.0)
+					/ (height - 1)));
+	// the pixel of the image at the upper left of the view, centered
+	int x = Math.floorDiv(fractal.getWidth() - 1 - k * (width - 1), 2);
+	int y = Math.floorDiv(fractal.getHeight() - 1 - k * (height - 1), 2);
+	double step = fractal.getDiscreteStep();
+	return fractal.withWindow(fractal.getXMin() + x * step,
+				  fractal.getYMax() - y * step, k * step,
+				  width, height);
+    }
+
+    // renders the view showing the whole fractal to build
+    private void startView(Fractal fractal, String action){
+	Fractal fitted = fit(fractal, VIEW_WIDTH, VIEW_HEIGHT);
+	exportScale = fitted.getDiscreteStep() / fractal.getDiscreteStep();
+	view = fitted;
+	idle.stop();
+	startRender(imageOf(fitted), action, false);
+    }
+
+    // renders the view showing the whole loaded image, copying the indices
+    // of every k-th pixel of the image unless it is smaller than the view
+    private void startLoadedView(FractalImage loaded){
+	Fractal fractal = loaded.getFractal();
+	if(fractal.getWidth() < VIEW_WIDTH && fractal.getHeight() < VIEW_HEIGHT){
+	    startView(fractal, "loaded");
+	    return;
+	}
+	Fractal fitted = fitOnGrid(fractal, VIEW_WIDTH, VIEW_HEIGHT);
+	exportScale = fitted.getDiscreteStep() / fractal.getDiscreteStep();
+	view = fitted;
+	idle.stop();
+	startRender(FractalImage.zoomOf(loaded, fitted), "loaded", false);
+    }
+
+    // renders the view moved or zoomed to the specified fractal, reusing
+    // the pixels of the displayed one, in frames fitting the budget while
+    // the view is moved
+    private void navigate(Fractal next, boolean framed){
+	// the fractal to build follows the view at full resolution
+	fractalToBuild =
+	    next.withWindow(next.getXMin(), next.getYMax(),
+			    next.getDiscreteStep() / exportScale,
+			    (int)Math.round((VIEW_WIDTH - 1) * exportScale) + 1,
+			    (int)Math.round((VIEW_HEIGHT - 1) * exportScale)
+			    + 1);
+	exportImage = null;
+	view = next;
+	if(framed){
+	    startRender(FractalImage.frameOf(fractalImage,
+					     budget.frameOf(next)),
+			"moved", true);
+	    idle.playFromStart();
+	} else {
+	    idle.stop();
+	    startRender(FractalImage.zoomOf(fractalImage, next), "zoomed",
+			false);
+	}
+    }
+
+    // renders the view in full if the last frame was of lower resolution
+    // or had fewer iterations
+    private void refineView(){
+	if(view != null && !RenderKey.of(frame).equals(RenderKey.of(view)))
+	    startRender(FractalImage.zoomOf(fractalImage, view), "refined",
+			false);
+    }
+
+    // zooms the view in or out by 2 around the mouse
+    private void scrollAction(ScrollEvent e){
+	if(view == null || e.getDeltaY() == 0)
+	    return;
+	// the new grid is aligned on the one of the view
+	int x = (int)Math.round(e.getX());
+	int y = (int)Math.round(e.getY());
+	double step = view.getDiscreteStep();
+	if(e.getDeltaY() > 0)
+	    navigate(view.withWindow(view.getXMin() + (x / 2) * step,
+				     view.getYMax() - (y / 2) * step,
+				     step / 2, VIEW_WIDTH, VIEW_HEIGHT), true);
+	else
+	    navigate(view.withWindow(view.getXMin() - x * step,
+				     view.getYMax() + y * step,
+				     step * 2, VIEW_WIDTH, VIEW_HEIGHT), true);
+	e.consume();
+    }
+
+    // moves the view along with the mouse, by whole pixels
+    private void dragAction(MouseEvent e){
+	if(view == null)
+	    return;
+	int dx = (int)Math.round(e.getX() - dragX);
+	int dy = (int)Math.round(e.getY() - dragY);
+	if(dx == 0 && dy == 0)
+	    return;
+	dragX += dx;
+	dragY += dy;
+	double step = view.getDiscreteStep();
+	navigate(view.withWindow(view.getXMin() - dx * step,
+				 view.getYMax() + dy * step,
+				 step, VIEW_WIDTH, VIEW_HEIGHT), true);
+    }
+
+    // renders the map of the Julia constants on the render pool, cached
+    // after the first launch, and previews the Julia set pointed on it
+    private void initParameterMap(){
+	double step = 3.0 / (MAP_WIDTH - 1);
+	Mandelbrot overview = new Mandelbrot.Builder()
+	    .fileName("Julia_constants")
+	    .build()
+	    .withWindow(-2.25, step * (MAP_HEIGHT - 1) / 2, step,
+			MAP_WIDTH, MAP_HEIGHT);
+	Task<int[]> task = new Task<>(){
+		@Override
+		protected int[] call(){
+		    int[] pixels = new int[MAP_WIDTH * MAP_HEIGHT];
+		    RenderEngine.render(overview, true, pixels, MAP_WIDTH);
+		    return pixels;
+		}
+	    };
+	task.setOnSucceeded(e -> {
+		WritableImage image = new WritableImage(MAP_WIDTH, MAP_HEIGHT);
+		writePixels(image, task.getValue());
+		parameterMap.setImage(image);
+		map = overview;
+	    });
+	task.setOnFailed(e -> task.getException().printStackTrace());
+	RenderEngine.getPool().execute(task);
+	parameterMap.setOnMouseMoved(e -> previewJulia(e));
+	parameterMap.setOnMousePressed(e -> previewJulia(e));
+	parameterMap.setOnMouseDragged(e -> previewJulia(e));
+	parameterMap.setOnMouseReleased(e -> exploreJulia(e));
+	parameterMap.setOnMouseExited(e -> {
+		exploring = false;
+		previewConstant = null;
+		if(viewImage != null)
+		    displayImage(viewImage);
+	    });
+    }
+
+    // returns the constant pointed on the map, inside the map
+    private Complex constantAt(MouseEvent e){
+	double x = Math.max(0, Math.min(e.getX(), MAP_WIDTH - 1));
+	double y = Math.max(0, Math.min(e.getY(), MAP_HEIGHT - 1));
+	double step = map.getDiscreteStep();
+	return Complex.of(map.getXMin() + x * step, map.getYMax() - y * step);
+    }
+
+    // returns the Julia set of the constant, like the fractal to build if
+    // it is a Julia set
+    private Julia juliaOf(Complex constant){
+	Julia julia = fractalToBuild instanceof Julia ? (Julia)fractalToBuild
+	    : new Julia.Builder().build();
+	return julia.withComplexConstant(constant);
+    }
+
+    // previews the Julia set of the constant pointed on the map. The
+    // constants pointed while a preview is rendered are skipped but the
+    // last one
+    private void previewJulia(MouseEvent e){
+	if(map == null)
+	    return;
+	exploring = true;
+	previewConstant = constantAt(e);
+	if(!previewing)
+	    startPreview();
+    }
+
+    // renders the preview of the waiting constant on the render pool
+    private void startPreview(){
+	Complex constant = previewConstant;
+	// the preview is a frame of the budget, scaled up when displayed
+	Fractal preview =
+	    previewBudget.frameOf(fit(juliaOf(constant), PREVIEW_WIDTH,
+				      PREVIEW_HEIGHT));
+	int w = preview.getWidth();
+	int h = preview.getHeight();
+	previewConstant = null;
+	previewing = true;
+	cancelPrefetch();
+	Task<int[]> task = new Task<>(){
+		@Override
+		protected int[] call(){
+		    // the indices of the previews are not cached
+		    long start = System.nanoTime();
+		    int[] pixels = new int[w * h];
+		    RenderEngine.renderUncached(preview, false, pixels, w, null);
+		    previewBudget.record(preview, (long)w * h,
+					 System.nanoTime() - start);
+		    return pixels;
+		}
+	    };
+	task.setOnSucceeded(e -> previewDone(constant, preview,
+					     task.getValue()));
+	task.setOnFailed(e -> {
+		task.getException().printStackTrace();
+		previewDone(constant, preview, null);
+	    });
+	RenderEngine.getPool().execute(task);
+    }
+
+    // displays the rendered preview, then renders the waiting one
+    private void previewDone(Complex constant, Fractal preview,
+			     int[] pixels){
+	previewing = false;
+	if(pixels != null && exploring){
+	    WritableImage previewImage =
+		new WritableImage(preview.getWidth(), preview.getHeight());
+	    writePixels(previewImage, pixels);
+	    displayImage(previewImage);
+	    stateLabel.setText("Julia set of C = " + constant);
 	}
+	if(previewConstant != null)
+	    startPreview();
+    }
+
+    // renders the Julia set of the constant pointed on the map
+    private void exploreJulia(MouseEvent e){
+	if(map == null)
+	    return;
+	exploring = false;
+	previewConstant = null;
+	Complex constant = constantAt(e);
+	cstRealPartInput.setText(Double.toString(constant.getRe()));
+	cstImPartInput.setText(Double.toString(constant.getIm()));
+	fractalToBuild = juliaOf(constant);
+	exportImage = null;
+	startView(fractalToBuild, "built");
+    }
+
+    // copies the RGB pixels, row after row, to the whole opaque image
+    private static void writePixels(WritableImage image, int[] pixels){
+	int w = (int)image.getWidth();
+	int h = (int)image.getHeight();
+	for(int i = 0; i < pixels.length; i++){
+	    pixels[i] |= 0xFF000000;
+	}
+	image.getPixelWriter()
+	    .setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0,
+		       w);
+    }
+
+    // returns the image of the fractal, only coloring again the
+    // displayed one if the fractal differs from it by its colors
+    private FractalImage imageOf(Fractal fractal){
+	if(fractalImage != null
+	   && RenderKey.of(fractalImage.getFractal())
+	   .equals(RenderKey.of(fractal)))
+	    return fractalImage.recolor(fractal);
+	return FractalImage.of(fractal);
+    }
+
+    // changes the colors of the displayed fractal
+    private void recolorAction(){
+	if(fractalImage == null || !isColorInputGiven()){
+	    showErrorAlert();
+	    return;
+	}
+	try {
+	    float a = readFloatInput(alphaColorInput);
+	    float b = readFloatInput(betaColorInput);
+	    float g = readFloatInput(gammaColorInput);
+	    fractalToBuild = fractalToBuild.withColorFunction(a, b, g);
+	    if(exportImage != null)
+		exportImage = exportImage.recolor(a, b, g);
+	    FractalImage recolored = fractalImage.recolor(a, b, g);
+	    view = view.withColorFunction(a, b, g);
+	    startRender(recolored, "recolored", false);
+	    idle.playFromStart();
+	} catch(Exception e){
+	    showErrorAlert();
+	}
+    }
+
+    // renders the image on the render pool, displaying its tiles as they
+    // are computed. The time taken by a timed image is recorded in the
+    // frame budget
+    private void startRender(FractalImage image, String action,
+			     boolean timed){
+	if(renderTask != null)
+	    renderTask.cancel(false);
+	cancelPrefetch();
+	// a frame is too short to be worth rendering in passes
+	RenderTask task =
+	    new RenderTask(image, !timed && progressiveCheck.isSelected(),
+			   timed);
+	renderTask = task;
+	frame = image.getFractal();
+	task.setOnSucceeded(e -> renderDone(task, action));
+	task.setOnCancelled(e -> renderStopped(task, "Rendering cancelled"));
+	task.setOnFailed(e -> {
+		task.getException().printStackTrace();
+		renderStopped(task, "Rendering failed");
+	    });
+	viewImage = task.getImage();
+	displayImage(viewImage);
+	renderProgress.setProgress(0);
+	cancelButton.setDisable(false);
+	stateLabel.setText("Rendering " + image.getFractal().getFileName()
+			   + "...");
+	pulse.start();
+	RenderEngine.getPool().execute(task);
+    }
+
+    // displays the last tiles of the rendered image
+    private void renderDone(RenderTask task, String action){
+	if(task != renderTask)
+	    return;
+	task.flush();
+	renderProgress.setProgress(1);
+	renderStopped(task, "Image " + task.getValue().getFractal()
+		      .getFileName() + " " + action + " !");
+	fractalImage = task.getValue();
+	zoomInButton.setDisable(false);
+	recolorButton.setDisable(false);
+	exportButton.setDisable(false);
+	// the quadrants of a frame of lower resolution are not zoomed into
+	if(RenderKey.of(fractalImage.getFractal()).equals(RenderKey.of(view)))
+	    startPrefetch();
+    }
+
+    // ends the rendering of the task unless another one replaced it
+    private void renderStopped(RenderTask task, String state){
+	if(task != renderTask)
+	    return;
+	renderTask = null;
+	pulse.stop();
+	cancelButton.setDisable(true);
+	stateLabel.setText(state);
+    }
+
+    // cancels the rendering in progress
+    private void cancelRender(){
+	if(renderTask != null)
+	    renderTask.cancel(false);
+    }
+
+    // saves the png image of the fractal to build at full resolution and
+    // its files, on the render pool
+    private void exportAction(){
+	Fractal fractal = fractalToBuild;
+	FractalImage image = exportImage;
+	boolean frac = fracCheck.isSelected();
+	Task<String> export = new Task<>(){
+		@Override
+		protected String call(){
+		    // the indices of a streamed image are not kept
+		    if(image == null && StreamedImage.isNeeded(fractal, frac)){
+			StreamedImage si = StreamedImage.of(fractal);
+			si.saveFile();
+			return frac ? si.getPath() + " (too large for a .frac)"
+			    : si.getPath();
+		    }
+		    FractalImage fi = image != null ? image
+			: FractalImage.of(fractal, frac);
+		    fi.saveFile();
+		    if(frac)
+			fi.saveBinary();
+		    return fi.getPath();
+		}
+	    };
+	export.setOnSucceeded(e -> {
+		exportButton.setDisable(false);
+		stateLabel.setText("Exported at " + export.getValue());
+	    });
+	export.setOnFailed(e -> {
+		export.getException().printStackTrace();
+		exportButton.setDisable(false);
+		stateLabel.setText("Export failed");
+	    });
+	exportButton.setDisable(true);
+	cancelPrefetch();
+	stateLabel.setText("Exporting " + fractal.getFileName() + "...");
+	RenderEngine.getPool().execute(export);
     }
 
     // displays the generated fractal onto the screen
-    private void displayImage(){
-	// the image is saved in /tmp
-	String path = "file://" + fractalImage.getPath();
-	Image image = new Image(path);
+    private void displayImage(Image image){
 	fractalDisplay.setImage(image);
 	fractalDisplay.setPreserveRatio(true);
 	fractalDisplay.setFitWidth(1360);
@@ -330,15 +886,39 @@ public class Controller {
 	    .add(new FractalMenuItem(FractalType.MANDELBROT));
     }
 
+    // loads the fractal and its divergence indices from a .frac file,
+    // null if there is none
+    private FractalImage loadBinary(String name){
+	File file = new File("/tmp/" + name + ".frac");
+	if(!file.exists())
+	    return null;
+	try {
+	    FractalBinary fb = FractalBinary.read(file);
+	    return FractalImage.of(fb.getFractal(), fb.getDivergenceBuffer());
+	} catch(IOException e){
+	    e.printStackTrace();
+	    return null;
+	}
+    }
+
     private void buildFromFile(){
 	buildFromFileButton.setDisable(true);
 	if(isInputGiven(buildFromFileInput)){
-	    String path = "/tmp/" + buildFromFileInput.getText() + ".txt";
-	    fractalToBuild = FractalText.textToImage(path);
+	    // the .frac file holds the indices, the .txt file only the
+	    // parameters
+	    FractalImage loaded = loadBinary(buildFromFileInput.getText());
+	    if(loaded != null){
+		fractalToBuild = loaded.getFractal();
+	    } else {
+		String path = "/tmp/" + buildFromFileInput.getText() + ".txt";
+		fractalToBuild = FractalText.textToImage(path);
+	    }
 	    if(fractalToBuild != null){
-		fractalImage = FractalImage.of(fractalToBuild);
-		fractalImage.saveFile();
-		displayImage();
+		exportImage = loaded;
+		if(loaded != null)
+		    startLoadedView(loaded);
+		else
+		    startView(fractalToBuild, "loaded");
 		buildFromFileButton.setDisable(false);
 	    } else {
 		showErrorAlert();
@@ -370,10 +950,9 @@ public class Controller {
 
     // Initializes the zoom zone selection in the gui
     private void initZoomZoneSelection(){
-      zoomZoneSelection.getItems().add(new ZoomMenuItem("TOP LEFT"));
-      zoomZoneSelection.getItems().add(new ZoomMenuItem("TOP RIGHT"));
-      zoomZoneSelection.getItems().add(new ZoomMenuItem("BOTTOM LEFT"));
-      zoomZoneSelection.getItems().add(new ZoomMenuItem("BOTTOM RIGHT"));
+      for(String zone : ZOOM_ZONES){
+	zoomZoneSelection.getItems().add(new ZoomMenuItem(zone));
+      }
     }
 
     // This menu item gives the choice to the user for the zoom zone.
@@ -387,96 +966,252 @@ public class Controller {
       }
     }
 
-    // zooms into the displayed image
+    // zooms by 2 into the selected quadrant of the displayed image,
+    // whose pixels are reused, or which was prefetched
     private void zoomInAction(){
+	if(view == null)
+	    return;
+	Fractal zoomed = quadrantOf(view, zoomZoneSelection.getText());
+	if(zoomed == null){
+	    stateLabel.setText("Choose a zone for the zoom");
+	    return;
+	}
+	fractalSelected.setText("Select a fractal to build");
+	buildButton.setDisable(true);
+	navigate(zoomed, false);
+    }
 
-      if(lastFractal.equals("Julia")){
-        Julia.Builder builder = new Julia.Builder();
-        // builder.complexConstant();
-        builder.imageHeight((int)(fractalToBuild.getHeight()/1.25));
-        builder.imageWidth((int)(fractalToBuild.getWidth()/1.25));
-        builder.fileName(fractalToBuild.getFileName());
-        builder.discreteStep(fractalToBuild.getDiscreteStep());
-        builder.iterationFunction(((Julia)fractalToBuild).getAlphaFactor(),
-				  ((Julia)fractalToBuild).getBetaFactor());
-        builder.complexConstant(((Julia)fractalToBuild).getComplexConstant());
-
-        if(zoomZoneSelection.getText().equals("TOP LEFT")){
-          builder.xMin(fractalToBuild.getXMin());
-          builder.xMax(fractalToBuild.getXMax()/2);
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax());
-        }
-        else if(zoomZoneSelection.getText().equals("TOP RIGHT")){
-          builder.xMin(fractalToBuild.getXMin()/2);
-          builder.xMax(fractalToBuild.getXMax());
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax());
-        }
-        else if(zoomZoneSelection.getText().equals("BOTTOM LEFT")){
-          builder.xMin(fractalToBuild.getXMin());
-          builder.xMax(fractalToBuild.getXMax());
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax()/2);
-        }
-        else if(zoomZoneSelection.getText().equals("BOTTOM RIGHT")){
-          builder.xMin(fractalToBuild.getXMin()/2);
-          builder.xMax(fractalToBuild.getXMax());
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax()/2);
-        }
-        else
-        {
-          stateLabel.setText("Choose a zone for the zoom");
-          return;
-        }
-        fractalToBuild = builder.build();
-      }
-      else if (lastFractal.equals("Mandelbrot")){
-
-        Mandelbrot.Builder builder = new Mandelbrot.Builder();
-        builder.imageHeight((int)(fractalToBuild.getHeight()/1.25));
-        builder.imageWidth((int)(fractalToBuild.getWidth()/1.25));
-        builder.fileName(fractalToBuild.getFileName());
-        builder.discreteStep(fractalToBuild.getDiscreteStep());
-
-        if(zoomZoneSelection.getText().equals("TOP LEFT")){
-          builder.xMin(fractalToBuild.getXMin());
-          builder.xMax(fractalToBuild.getXMax()/2);
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax());
-        }
-        else if(zoomZoneSelection.getText().equals("TOP RIGHT")){
-          builder.xMin(fractalToBuild.getXMin()/2);
-          builder.xMax(fractalToBuild.getXMax());
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax());
-        }
-        else if(zoomZoneSelection.getText().equals("BOTTOM LEFT")){
-          builder.xMin(fractalToBuild.getXMin());
-          builder.xMax(fractalToBuild.getXMax());
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax()/2);
-        }
-        else if(zoomZoneSelection.getText().equals("BOTTOM RIGHT")){
-          builder.xMin(fractalToBuild.getXMin()/2);
-          builder.xMax(fractalToBuild.getXMax());
-          builder.yMin(fractalToBuild.getYMin());
-          builder.yMax(fractalToBuild.getYMax()/2);
-        }
-        else
-        {
-          stateLabel.setText("Choose a zone for the zoom");
-          return;
-        }
-        fractalToBuild = builder.build();
-      }
-	    fractalSelected.setText("Select a fractal to build");
-	    buildButton.setDisable(true);
-	    fractalImage = FractalImage.of(fractalToBuild);
-	    fractalImage.saveFile(); // saves the png image
-	    displayImage(); // displays it onto the screen
-	    stateLabel.setText("Image "
-			       + fractalToBuild.getFileName() + " zoomed !");
+    // returns the fractal zoomed by 2 into the quadrant of the parent
+    // named as in the zoom zone selection, null for another name
+    private static Fractal quadrantOf(Fractal parent, String zone){
+	int w = parent.getWidth();
+	int h = parent.getHeight();
+	// the parent pixel at the upper left of the quadrant
+	int x, y;
+	switch(zone){
+	case "TOP LEFT":
+	    x = 0;
+	    y = 0;
+	    break;
+	case "TOP RIGHT":
+	    x = (w - 1) / 2;
+	    y = 0;
+	    break;
+	case "BOTTOM LEFT":
+	    x = 0;
+	    y = (h - 1) / 2;
+	    break;
+	case "BOTTOM RIGHT":
+	    x = (w - 1) / 2;
+	    y = (h - 1) / 2;
+	    break;
+	default:
+	    return null;
+	}
+	double step = parent.getDiscreteStep();
+	return parent.withWindow(parent.getXMin() + x * step,
+				 parent.getYMax() - y * step,
+				 step / 2, w, h);
+    }
+
+    // renders the quadrants of the displayed view into the render cache
+    // while the user looks at it
+    private void startPrefetch(){
+	cancelPrefetch();
+	PrefetchTask task = new PrefetchTask(fractalImage);
+	prefetchTask = task;
+	task.setOnFailed(e -> task.getException().printStackTrace());
+	RenderEngine.getPool().execute(task);
+    }
+
+    // stops the prefetch before its next tile, leaving the pool to the
+    // work requested
+    private void cancelPrefetch(){
+	if(prefetchTask != null)
+	    prefetchTask.cancel(false);
+	prefetchTask = null;
+    }
+
+    // This task renders the zooms into the four quadrants of an image,
+    // one after the other, only to cache their divergence indices. The
+    // tiles are not reported, and the rendering stops before its next
+    // tile once the task is cancelled
+    private class PrefetchTask extends Task<Void> implements RenderListener {
+
+	// the image whose quadrants are rendered
+	private final FractalImage parent;
+
+	PrefetchTask(FractalImage parent){
+	    this.parent = parent;
+	}
+
+	@Override
+	protected Void call(){
+	    Fractal fractal = parent.getFractal();
+	    int[] pixels = new int[fractal.getWidth() * fractal.getHeight()];
+	    for(String zone : ZOOM_ZONES){
+		if(isCancelled())
+		    break;
+		// the indices of the parent are reused as for a zoom
+		FractalImage.zoomOf(parent, quadrantOf(fractal, zone))
+		    .render(pixels, this);
+	    }
+	    return null;
+	}
+
+	@Override
+	public void tileRendered(int x0, int y0, int x1, int y1){
+	    // nothing is displayed
+	}
+    }
+
+    // This task renders a fractal image on the render pool. The render
+    // threads report the tiles they complete, which are copied to the
+    // displayed image at most once per pulse
+    private class RenderTask extends Task<FractalImage>
+	implements RenderListener {
+
+	// the image to render
+	private final FractalImage image;
+
+	// true to render the image in passes of decreasing stride
+	private final boolean progressive;
+
+	// true to record the time taken in the frame budget
+	private final boolean timed;
+
+	// dimensions of the image in pixels
+	private final int width;
+	private final int height;
+
+	// the RGB pixels written by the render threads
+	private final int[] pixels;
+
+	// the displayed image
+	private final WritableImage display;
+
+	// the rectangle rendered since the last pulse, empty if x0 >= x1
+	private int dirtyX0, dirtyY0, dirtyX1, dirtyY1;
+
+	// the handle of the rendering on the pool, null until it starts
+	private volatile RenderHandle handle;
+
+	// the number of pixels reported in the current pass, and the number
+	// of pixels computed instead of copied in all
+	private long rendered;
+	private long computed;
+
+	// the share of the pixels computed by the passes complete, and by
+	// the current pass
+	private double doneShare;
+	private double passShare;
+
+	RenderTask(FractalImage image, boolean progressive, boolean timed){
+	    this.image = image;
+	    this.progressive = progressive;
+	    this.timed = timed;
+	    // the first pass computes the grid of step FIRST_STRIDE
+	    int first = RefinementCalculator.FIRST_STRIDE;
+	    this.passShare = progressive ? 1.0 / (first * first) : 1.0;
+	    this.width = image.getFractal().getWidth();
+	    this.height = image.getFractal().getHeight();
+	    this.pixels = new int[width * height];
+	    this.display = new WritableImage(width, height);
+	    clearDirty();
+	}
+
+	// returns the displayed image
+	WritableImage getImage(){
+	    return display;
+	}
+
+	@Override
+	protected FractalImage call(){
+	    long start = System.nanoTime();
+	    try {
+		handle = image.submit(pixels, progressive, this, 0);
+		handle.join();
+	    } finally {
+		// the pixels of a cancelled frame are counted as well
+		if(timed)
+		    budget.record(image.getFractal(), getComputed(),
+				  System.nanoTime() - start);
+	    }
+	    return image;
+	}
+
+	// returns the number of pixels computed
+	private synchronized long getComputed(){
+	    return computed;
+	}
+
+	@Override
+	protected void cancelled(){
+	    // the tiles not started yet are skipped
+	    RenderHandle h = handle;
+	    if(h != null)
+		h.cancel();
+	}
+
+	@Override
+	public synchronized void passRendered(int stride){
+	    // the pixels of the grid of step stride are computed, the next
+	    // pass computes the three quarters left of the grid of step
+	    // stride / 2
+	    doneShare = 1.0 / ((double)stride * stride);
+	    passShare = stride > 1 ? 3 * doneShare : 0;
+	    rendered = 0;
+	}
+
+	@Override
+	public synchronized void tileRendered(int x0, int y0, int x1, int y1){
+	    tileCopied(x0, y0, x1, y1);
+	    computed += (long)(x1 - x0) * (y1 - y0);
+	}
+
+	@Override
+	public synchronized void tileCopied(int x0, int y0, int x1, int y1){
+	    dirtyX0 = Math.min(dirtyX0, x0);
+	    dirtyY0 = Math.min(dirtyY0, y0);
+	    dirtyX1 = Math.max(dirtyX1, Math.min(x1, width));
+	    dirtyY1 = Math.max(dirtyY1, Math.min(y1, height));
+	    rendered += (long)(x1 - x0) * (y1 - y0);
+	}
+
+	// empties the rectangle rendered
+	private void clearDirty(){
+	    dirtyX0 = dirtyY0 = Integer.MAX_VALUE;
+	    dirtyX1 = dirtyY1 = Integer.MIN_VALUE;
+	}
+
+	// copies the pixels rendered since the last call to the displayed
+	// image, on the FX thread
+	void flush(){
+	    int x0, y0, x1, y1;
+	    double progress;
+	    synchronized(this){
+		x0 = dirtyX0;
+		y0 = dirtyY0;
+		x1 = dirtyX1;
+		y1 = dirtyY1;
+		progress = doneShare + passShare
+		    * Math.min(1.0, (double)rendered / ((long)width * height));
+		clearDirty();
+	    }
+	    renderProgress.setProgress(Math.min(1.0, progress));
+	    if(x0 >= x1 || y0 >= y1)
+		return;
+	    int w = x1 - x0;
+	    int[] argb = new int[w * (y1 - y0)];
+	    for(int j = y0; j < y1; j++){
+		for(int i = x0; i < x1; i++){
+		    argb[(j - y0) * w + i - x0] =
+			0xFF000000 | pixels[j * width + i];
+		}
+	    }
+	    display.getPixelWriter()
+		.setPixels(x0, y0, w, y1 - y0, PixelFormat.getIntArgbInstance(),
+			   argb, 0, w);
+	}
     }
 }
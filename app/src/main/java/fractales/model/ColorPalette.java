@@ -0,0 +1,126 @@
+package fractales.model;
+
+import java.awt.Color;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class holds the color of each divergence index of a fractal.
+ * The colors are computed once from the color factors, and the palette
+ * is shared by every fractal that has the same maximal number of
+ * iterations and color factors. Only the MAX_SHARED palettes used last
+ * are kept for sharing, each fractal keeping its own.
+ * This class is immutable.
+ */
+public final class ColorPalette {
+
+    /**
+     * Number of palettes kept for sharing
+     */
+    public static final int MAX_SHARED = 16;
+
+    // the palettes used last, by parameters, least recently used first
+    private static final Map<Key, ColorPalette> PALETTES =
+	new LinkedHashMap<>(16, 0.75f, true){
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<Key, ColorPalette>
+						eldest){
+		return size() > MAX_SHARED;
+	    }
+	};
+
+    // the RGB color of each divergence index
+    private final int[] colors;
+
+    // computes the colors of the indices from 0 to maxIteration - 1
+    private ColorPalette(int maxIteration, float alpha, float beta,
+			 float gamma){
+	this.colors = new int[Math.max(maxIteration, 0)];
+	for(int index = 0; index < maxIteration - 1; index++){
+	    colors[index] =
+		Color.HSBtoRGB((float)index * alpha / (float)maxIteration,
+			       beta,
+			       gamma);
+	}
+	// the points that do not diverge are black
+	if(maxIteration > 0)
+	    colors[maxIteration - 1] = 0;
+    }
+
+    /**
+     * Returns the palette of a fractal of the specified maximal number of
+     * iterations and color factors, computing it unless it is one of
+     * the palettes used last
+     *
+     * @param maxIteration The maximal number of iterations
+     * @param alpha The alpha color factor
+     * @param beta The beta color factor
+     * @param gamma The gamma color factor
+     * @return The shared palette of these parameters
+     */
+    public static ColorPalette of(int maxIteration, float alpha, float beta,
+				  float gamma){
+	synchronized(PALETTES){
+	    return PALETTES.computeIfAbsent(new Key(maxIteration, alpha, beta,
+						    gamma),
+					    k -> new ColorPalette(maxIteration,
+								  alpha, beta,
+								  gamma));
+	}
+    }
+
+    /**
+     * Returns the RGB color of the specified divergence index
+     *
+     * @param divergenceIndex A divergence index
+     * @return The color associated to the given divergence index
+     */
+    public int getColor(int divergenceIndex){
+	return colors[divergenceIndex];
+    }
+
+    /**
+     * Returns the number of colors of this palette, the maximal number of
+     * iterations of the fractal
+     *
+     * @return The number of colors
+     */
+    public int size(){
+	return colors.length;
+    }
+
+    // the parameters that define a palette
+    private static final class Key {
+
+	private final int maxIteration;
+	private final float alpha;
+	private final float beta;
+	private final float gamma;
+
+	Key(int maxIteration, float alpha, float beta, float gamma){
+	    this.maxIteration = maxIteration;
+	    this.alpha = alpha;
+	    this.beta = beta;
+	    this.gamma = gamma;
+	}
+
+	@Override
+	public boolean equals(Object o){
+	    if(!(o instanceof Key))
+		return false;
+	    Key k = (Key)o;
+	    return maxIteration == k.maxIteration
+		&& Float.compare(alpha, k.alpha) == 0
+		&& Float.compare(beta, k.beta) == 0
+		&& Float.compare(gamma, k.gamma) == 0;
+	}
+
+	@Override
+	public int hashCode(){
+	    int h = maxIteration;
+	    h = 31 * h + Float.hashCode(alpha);
+	    h = 31 * h + Float.hashCode(beta);
+	    return 31 * h + Float.hashCode(gamma);
+	}
+    }
+}
@@ -0,0 +1,240 @@
+package fractales.model;
+
+/**
+ * This class stores the divergence indices of the pixels of a fractal
+ * image, row after row, the way the pixels of an image are stored.
+ * The index of pixel (x, y) is at position y * stride + x.
+ * The indices are stored in the narrowest primitive type that holds
+ * every index up to maxIteration - 1 : a byte up to 255, a 16 bits
+ * char up to 65535 and an int above, all read and written as int.
+ */
+public abstract class DivergenceBuffer {
+
+    // dimensions of the image in pixels
+    private final int width;
+    private final int height;
+
+    // distance between two vertically adjacent pixels
+    private final int stride;
+
+    /**
+     * Instantiates a buffer of width x height divergence indices
+     *
+     * @param width The width in pixels of the image
+     * @param height The height in pixels of the image
+     * @throws IllegalArgumentException if the dimensions are negative
+     */
+    protected DivergenceBuffer(int width, int height){
+	if(width < 0 || height < 0)
+	    throw new IllegalArgumentException("Invalid buffer size : "
+					       + width + "x" + height);
+	this.width = width;
+	this.height = height;
+	this.stride = width;
+    }
+
+    /**
+     * Returns a new buffer of width x height divergence indices, all 0,
+     * able to store the indices of a fractal of the given maximal number
+     * of iterations
+     *
+     * @param width The width in pixels of the image
+     * @param height The height in pixels of the image
+     * @param maxIteration The maximal number of iterations of the fractal
+     * @return A new buffer of the given dimensions
+     * @throws IllegalArgumentException if the dimensions are negative or
+     * too large for a single array
+     */
+    public static DivergenceBuffer of(int width, int height,
+				      int maxIteration){
+	if((long)width * height > Integer.MAX_VALUE - 8)
+	    throw new IllegalArgumentException("Invalid buffer size : "
+					       + width + "x" + height);
+	switch(bytesPerIndex(maxIteration)){
+	case Byte.BYTES:
+	    return new ByteDivergenceBuffer(width, height);
+	case Character.BYTES:
+	    return new CharDivergenceBuffer(width, height);
+	default:
+	    return new IntDivergenceBuffer(width, height);
+	}
+    }
+
+    /**
+     * Returns the number of bytes used to store a divergence index of a
+     * fractal of the given maximal number of iterations
+     *
+     * @param maxIteration The maximal number of iterations of the fractal
+     * @return The size in bytes of an index
+     */
+    public static int bytesPerIndex(int maxIteration){
+	if(maxIteration - 1 <= 0xFF)
+	    return Byte.BYTES;
+	if(maxIteration - 1 <= Character.MAX_VALUE)
+	    return Character.BYTES;
+	return Integer.BYTES;
+    }
+
+    /**
+     * Returns the width in pixels of the image
+     *
+     * @return The width of the image
+     */
+    public int getWidth(){
+	return width;
+    }
+
+    /**
+     * Returns the height in pixels of the image
+     *
+     * @return The height of the image
+     */
+    public int getHeight(){
+	return height;
+    }
+
+    /**
+     * Returns the distance between two vertically adjacent pixels
+     *
+     * @return The stride of the buffer
+     */
+    public int getStride(){
+	return stride;
+    }
+
+    /**
+     * Returns the number of bytes used to store a divergence index
+     *
+     * @return The size in bytes of a divergence index
+     */
+    public abstract int getBytesPerIndex();
+
+    /**
+     * Returns the divergence index of pixel (x, y)
+     *
+     * @param x The column of the pixel
+     * @param y The row of the pixel
+     * @return The divergence index of the pixel
+     */
+    public abstract int get(int x, int y);
+
+    /**
+     * Sets the divergence index of pixel (x, y)
+     *
+     * @param x The column of the pixel
+     * @param y The row of the pixel
+     * @param index The divergence index of the pixel
+     */
+    public abstract void set(int x, int y, int index);
+
+    /**
+     * Sets the divergence index of every pixel of [x0, x1) x [y0, y1)
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     * @param index The divergence index of the pixels
+     */
+    public void fill(int x0, int y0, int x1, int y1, int index){
+	for(int y = y0; y < y1; y++){
+	    for(int x = x0; x < x1; x++){
+		set(x, y, index);
+	    }
+	}
+    }
+
+    /**
+     * Returns a copy of the divergence indices as a 2D array indexed
+     * [x][y], as returned by Fractal.getDivergenceIndexMatrix
+     *
+     * @return A 2D array containing the divergence index of each pixel
+     */
+    public int[][] toMatrix(){
+	int[][] matrix = new int[width][height];
+	for(int y = 0; y < height; y++){
+	    for(int x = 0; x < width; x++){
+		matrix[x][y] = get(x, y);
+	    }
+	}
+	return matrix;
+    }
+
+    // indices up to 255, stored as unsigned bytes
+    private static final class ByteDivergenceBuffer extends DivergenceBuffer {
+
+	private final byte[] indices;
+
+	ByteDivergenceBuffer(int width, int height){
+	    super(width, height);
+	    this.indices = new byte[width * height];
+	}
+
+	@Override
+	public int getBytesPerIndex(){
+	    return Byte.BYTES;
+	}
+
+	@Override
+	public int get(int x, int y){
+	    return indices[y * getStride() + x] & 0xFF;
+	}
+
+	@Override
+	public void set(int x, int y, int index){
+	    indices[y * getStride() + x] = (byte)index;
+	}
+    }
+
+    // indices up to 65535, stored as chars
+    private static final class CharDivergenceBuffer extends DivergenceBuffer {
+
+	private final char[] indices;
+
+	CharDivergenceBuffer(int width, int height){
+	    super(width, height);
+	    this.indices = new char[width * height];
+	}
+
+	@Override
+	public int getBytesPerIndex(){
+	    return Character.BYTES;
+	}
+
+	@Override
+	public int get(int x, int y){
+	    return indices[y * getStride() + x];
+	}
+
+	@Override
+	public void set(int x, int y, int index){
+	    indices[y * getStride() + x] = (char)index;
+	}
+    }
+
+    // any index, stored as ints
+    private static final class IntDivergenceBuffer extends DivergenceBuffer {
+
+	private final int[] indices;
+
+	IntDivergenceBuffer(int width, int height){
+	    super(width, height);
+	    this.indices = new int[width * height];
+	}
+
+	@Override
+	public int getBytesPerIndex(){
+	    return Integer.BYTES;
+	}
+
+	@Override
+	public int get(int x, int y){
+	    return indices[y * getStride() + x];
+	}
+
+	@Override
+	public void set(int x, int y, int index){
+	    indices[y * getStride() + x] = index;
+	}
+    }
+}
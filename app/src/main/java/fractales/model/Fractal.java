@@ -9,11 +9,28 @@ public interface Fractal {
 	JULIA, MANDELBROT;
     }
 
+    /**
+     * The ways of computing the divergence index matrix
+     */
+    public enum RenderStrategy {
+	// computes every pixel
+	BRUTE_FORCE,
+	// fills the rectangles whose border has a single divergence index
+	MARIANI_SILVER;
+    }
+
     /**
      * Radius value that bounds the iteration function
      */
     double RADIUS = 2.0;
 
+    /**
+     * Bound on the squared modulus of an iterated point. sqrt is correctly
+     * rounded, so the squares just above RADIUS * RADIUS whose root rounds
+     * down to RADIUS are kept, exactly as with a modulus() <= RADIUS test
+     */
+    double SQUARED_RADIUS_BOUND = Math.nextUp(RADIUS * RADIUS);
+
     /**
      * Computes the divergence index of each complex in the
      * rectangle delimeted by xMin xMax yMin yMax of the complex plane
@@ -24,6 +41,16 @@ public interface Fractal {
      */
     int[][] getDivergenceIndexMatrix();
 
+    /**
+     * Computes the divergence index of each complex in the
+     * rectangle delimeted by xMin xMax yMin yMax of the complex plane
+     * and stores the resulting indices in a buffer, row after row
+     *
+     * @return A buffer containing the divergence index of the
+     * corresponding complex number
+     */
+    DivergenceBuffer getDivergenceBuffer();
+
     /**
      * Computes the divergence index of Complex z
      *
@@ -32,6 +59,16 @@ public interface Fractal {
      */
     int computeDivergence(Complex z);
 
+    /**
+     * Computes the divergence index of the complex number re + i * im
+     * without allocating any Complex on the way
+     *
+     * @param re The real part of the complex number
+     * @param im The imaginary part of the complex number
+     * @return The divergence index of re + i * im
+     */
+    int computeDivergence(double re, double im);
+
     /**
      * Returns the width of the image that contains this Fractal
      *
@@ -96,6 +133,13 @@ public interface Fractal {
      */
     FractalType getFractalType();
 
+    /**
+     * Returns the way of computing the divergence index matrix
+     *
+     * @return The render strategy of the fractal
+     */
+    RenderStrategy getRenderStrategy();
+
     /**
      * Returns the maximum number of iteration for the iteration function
      *
@@ -132,4 +176,47 @@ public interface Fractal {
      * @return The color associated to the given int divergence index
      */
     int getColorFromDivergenceIndex(int divergenceIndex);
+
+    /**
+     * Returns the palette holding the color of each divergence index,
+     * shared by the fractals of same maximal number of iterations and
+     * color factors
+     *
+     * @return The color palette of the fractal
+     */
+    ColorPalette getPalette();
+
+    /**
+     * Returns a fractal equal to this one but for its color factors
+     *
+     * @param alpha First factor
+     * @param beta Second factor
+     * @param gamma Third factor
+     * @return A new fractal with the given color factors
+     */
+    Fractal withColorFunction(float alpha, float beta, float gamma);
+
+    /**
+     * Returns a fractal equal to this one but for its maximal number of
+     * iterations
+     *
+     * @param maxIteration The maximal number of iterations
+     * @return A new fractal with the given maximal number of iterations
+     */
+    Fractal withMaxIteration(int maxIteration);
+
+    /**
+     * Returns a fractal equal to this one but for the window of the
+     * complex plane it represents, whose upper left point is
+     * (xMin, yMax)
+     *
+     * @param xMin The minimal value along the x-axis
+     * @param yMax The maximal value along the y-axis
+     * @param discreteStep The distance between two adjacent pixels
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @return A new fractal of the given window
+     */
+    Fractal withWindow(double xMin, double yMax, double discreteStep,
+		       int width, int height);
 }
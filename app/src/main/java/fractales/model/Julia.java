@@ -1,9 +1,7 @@
 package fractales.model;
 
 import java.util.function.Function;
-import java.awt.Color;
-import java.util.concurrent.*;
-import fractales.utils.DivergenceIndexMatrixCalculator;
+import fractales.utils.RenderEngine;
 
 /**
  * This class encapsulates a Julia set
@@ -33,11 +31,26 @@ public class Julia implements Fractal {
     private final Function <Complex,Complex> iterationFunction;
     private final Complex complexConstant;
 
+    // primitive parts of the iteration function factors, for the
+    // allocation-free computation of the divergence index
+    private final double alphaRe;
+    private final double alphaIm;
+    private final double betaRe;
+    private final double betaIm;
+    private final double constantRe;
+    private final double constantIm;
+
     // factors for the color function
     private final float alphaColor;
     private final float betaColor;
     private final float gammaColor;
 
+    // the way of computing the divergence index matrix
+    private final RenderStrategy renderStrategy;
+
+    // the color of each divergence index, computed on first use
+    private volatile ColorPalette palette;
+
     // the fractal type
     private final FractalType fractalType = FractalType.JULIA;
 
@@ -59,6 +72,13 @@ public class Julia implements Fractal {
 	this.alphaColor = builder.alphaColor;
 	this.betaColor = builder.betaColor;
 	this.gammaColor = builder.gammaColor;
+	this.renderStrategy = builder.renderStrategy;
+	this.alphaRe = alphaFactor.getRe();
+	this.alphaIm = alphaFactor.getIm();
+	this.betaRe = betaFactor.getRe();
+	this.betaIm = betaFactor.getIm();
+	this.constantRe = complexConstant.getRe();
+	this.constantIm = complexConstant.getIm();
     }
 
     /**
@@ -87,6 +107,7 @@ public class Julia implements Fractal {
 	private float alphaColor = 20.0f;
 	private float betaColor = 1.0f;
 	private float gammaColor = 1.0f;
+	private RenderStrategy renderStrategy = RenderStrategy.BRUTE_FORCE;
 
 	/**
 	 * Sets the value of the complex constant
@@ -231,6 +252,17 @@ public class Julia implements Fractal {
 	    return this;
 	}
 
+	/**
+	 * Sets the way of computing the divergence index matrix
+	 *
+	 * @param renderStrategy The render strategy
+	 * @return This Builder instance
+	 */
+	public Builder renderStrategy(RenderStrategy renderStrategy){
+	    this.renderStrategy = renderStrategy;
+	    return this;
+	}
+
 	/**
 	 * Builds a Julia instance from this builder
 	 *
@@ -266,6 +298,35 @@ public class Julia implements Fractal {
 	return iteration;
     }
 
+    /**
+     * Computes the divergence index of the complex number re + i * im
+     * on primitive doubles, in the same order of operations as the
+     * iteration function so that both give the same index
+     *
+     * @param re The real part of the complex number
+     * @param im The imaginary part of the complex number
+     * @return The divergence index of re + i * im
+     */
+    @Override
+    public int computeDivergence(double re, double im){
+	int iteration = 0;
+	double zRe = re;
+	double zIm = im;
+	while(iteration < maxIteration - 1
+	      && zRe * zRe + zIm * zIm <= Fractal.SQUARED_RADIUS_BOUND){
+	    // f(z) = alpha * z^2 + z * beta + complexConstant
+	    double sqRe = zRe * zRe - zIm * zIm;
+	    double sqIm = zRe * zIm + zIm * zRe;
+	    double nextRe = (alphaRe * sqRe - alphaIm * sqIm)
+		+ (zRe * betaRe - zIm * betaIm) + constantRe;
+	    zIm = (alphaRe * sqIm + alphaIm * sqRe)
+		+ (zRe * betaIm + zIm * betaRe) + constantIm;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	return iteration;
+    }
+
     /**
      * Computes the divergence index of each complex in the
      * rectangle delimeted by xMin xMax yMin yMax of the complex plane
@@ -276,13 +337,20 @@ public class Julia implements Fractal {
      */
     @Override
     public int[][] getDivergenceIndexMatrix(){
-    	int[][] arrayDivergence = new int[imageWidth][imageHeight];
-	DivergenceIndexMatrixCalculator work =
-	    new DivergenceIndexMatrixCalculator(0, this.getWidth() - 1,
-						arrayDivergence, this);
-	ForkJoinPool pool = new ForkJoinPool();
-	pool.invoke(work);
-	return arrayDivergence;
+	return getDivergenceBuffer().toMatrix();
+    }
+
+    /**
+     * Computes the divergence index of each complex in the
+     * rectangle delimeted by xMin xMax yMin yMax of the complex plane
+     * and stores the resulting indices in a buffer, row after row
+     *
+     * @return A buffer containing the divergence index of the
+     * corresponding complex number
+     */
+    @Override
+    public DivergenceBuffer getDivergenceBuffer(){
+	return RenderEngine.computeDivergenceBuffer(this);
     }
 
     /**
@@ -324,12 +392,135 @@ public class Julia implements Fractal {
      */
     @Override
     public int getColorFromDivergenceIndex(int divergenceIndex){
-	if(divergenceIndex == maxIteration - 1)
-	    return 0;
-	return Color
-	    .HSBtoRGB((float)divergenceIndex * alphaColor / (float)maxIteration,
-		      betaColor,
-		      gammaColor);
+	return getPalette().getColor(divergenceIndex);
+    }
+
+    /**
+     * Returns a Julia set equal to this one but for its color factors
+     *
+     * @param alpha First factor
+     * @param beta Second factor
+     * @param gamma Third factor
+     * @return A new Julia instance with the given color factors
+     */
+    @Override
+    public Julia withColorFunction(float alpha, float beta, float gamma){
+	return new Builder()
+	    .complexConstant(complexConstant)
+	    .iterationFunction(alphaFactor, betaFactor)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(yMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alpha, beta, gamma)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns a Julia set equal to this one but for its maximal number of
+     * iterations
+     *
+     * @param maxIteration The maximal number of iterations
+     * @return A new Julia instance with the given maximal number of
+     * iterations
+     */
+    @Override
+    public Julia withMaxIteration(int maxIteration){
+	return new Builder()
+	    .complexConstant(complexConstant)
+	    .iterationFunction(alphaFactor, betaFactor)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(yMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns a Julia set equal to this one but for the window of
+     * the complex plane it represents, whose upper left point is
+     * (xMin, yMax)
+     *
+     * @param xMin The minimal value along the x-axis
+     * @param yMax The maximal value along the y-axis
+     * @param discreteStep The distance between two adjacent pixels
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @return A new Julia instance of the given window
+     */
+    @Override
+    public Julia withWindow(double xMin, double yMax, double discreteStep,
+			   int width, int height){
+	return new Builder()
+	    .complexConstant(complexConstant)
+	    .iterationFunction(alphaFactor, betaFactor)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMin + discreteStep * (width - 1))
+	    .yMin(yMax - discreteStep * (height - 1))
+	    .yMax(yMax)
+	    .imageWidth(width)
+	    .imageHeight(height)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns a Julia set equal to this one but for its complex constant
+     *
+     * @param complexConstant The complex constant "C"
+     * @return A new Julia instance with the given constant
+     */
+    public Julia withComplexConstant(Complex complexConstant){
+	return new Builder()
+	    .complexConstant(complexConstant)
+	    .iterationFunction(alphaFactor, betaFactor)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(yMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns the palette holding the color of each divergence index,
+     * computed on first use
+     *
+     * @return The color palette of the fractal
+     */
+    @Override
+    public ColorPalette getPalette(){
+	ColorPalette p = palette;
+	if(p == null){
+	    // the shared palette is immutable, a racing thread gets the same
+	    p = ColorPalette.of(maxIteration, alphaColor, betaColor,
+				gammaColor);
+	    palette = p;
+	}
+	return p;
     }
 
     @Override
@@ -362,6 +553,11 @@ public class Julia implements Fractal {
 	return this.fractalType;
     }
 
+    @Override
+    public RenderStrategy getRenderStrategy(){
+	return this.renderStrategy;
+    }
+
     @Override
     public int getMaxIteration(){
 	return this.maxIteration;
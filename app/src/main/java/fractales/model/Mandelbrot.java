@@ -1,11 +1,15 @@
 package fractales.model;
 
-import java.awt.Color;
-import java.util.concurrent.*;
-import fractales.utils.DivergenceIndexMatrixCalculator;
+import fractales.utils.RenderEngine;
 
 public class Mandelbrot implements Fractal {
 
+    /**
+     * Distance under which two points of an orbit are considered equal
+     * by the periodicity detection
+     */
+    public static final double PERIODICITY_TOLERANCE = 1e-13;
+
     // maximal number of iterations of the function
     private final int maxIteration;
 
@@ -28,6 +32,15 @@ public class Mandelbrot implements Fractal {
     private final float betaColor;
     private final float gammaColor;
 
+    // true if the points inside the set are detected early
+    private final boolean interiorDetection;
+
+    // the way of computing the divergence index matrix
+    private final RenderStrategy renderStrategy;
+
+    // the color of each divergence index, computed on first use
+    private volatile ColorPalette palette;
+
     // the fractal type
     private final FractalType fractalType = FractalType.MANDELBROT;
 
@@ -45,6 +58,8 @@ public class Mandelbrot implements Fractal {
 	this.alphaColor = builder.alphaColor;
 	this.betaColor = builder.betaColor;
 	this.gammaColor = builder.gammaColor;
+	this.interiorDetection = builder.interiorDetection;
+	this.renderStrategy = builder.renderStrategy;
     }
 
     /**
@@ -65,6 +80,8 @@ public class Mandelbrot implements Fractal {
 	private float alphaColor = 20.0f;
 	private float betaColor = 1.0f;
 	private float gammaColor = 1.0f;
+	private boolean interiorDetection = false;
+	private RenderStrategy renderStrategy = RenderStrategy.BRUTE_FORCE;
 	
 	/**
 	 * Sets the maximum iteration value for the iteration function
@@ -181,7 +198,32 @@ public class Mandelbrot implements Fractal {
 	    this.gammaColor = gamma;
 	    return this;
 	}
+
+	/**
+	 * Enables the early detection of the points inside the set : the
+	 * points of the main cardioid and of the period-2 bulb are found
+	 * without iterating, and the iteration stops as soon as the orbit
+	 * is periodic. These points get maxIteration - 1 as divergence index
+	 *
+	 * @param interiorDetection true to enable the detection
+	 * @return This Builder instance
+	 */
+	public Builder interiorDetection(boolean interiorDetection){
+	    this.interiorDetection = interiorDetection;
+	    return this;
+	}
 	
+	/**
+	 * Sets the way of computing the divergence index matrix
+	 *
+	 * @param renderStrategy The render strategy
+	 * @return This Builder instance
+	 */
+	public Builder renderStrategy(RenderStrategy renderStrategy){
+	    this.renderStrategy = renderStrategy;
+	    return this;
+	}
+
 	/**
 	 * Builds a Mandelbrot instance from this builder
 	 *
@@ -210,13 +252,19 @@ public class Mandelbrot implements Fractal {
      * corresponding complex number
      */
     public int[][] getDivergenceIndexMatrix(){
-	int[][] arrayDivergence = new int[imageWidth][imageHeight];
-	DivergenceIndexMatrixCalculator work =
-	    new DivergenceIndexMatrixCalculator(0, this.getWidth() -1,
-						arrayDivergence, this);
-	ForkJoinPool pool = new ForkJoinPool();
-	pool.invoke(work);
-	return arrayDivergence;
+	return getDivergenceBuffer().toMatrix();
+    }
+
+    /**
+     * Computes the divergence index of each complex in the
+     * rectangle delimeted by xMin xMax yMin yMax of the complex plane
+     * and stores the resulting indices in a buffer, row after row
+     *
+     * @return A buffer containing the divergence index of the
+     * corresponding complex number
+     */
+    public DivergenceBuffer getDivergenceBuffer(){
+	return RenderEngine.computeDivergenceBuffer(this);
     }
 
     /**
@@ -236,6 +284,77 @@ public class Mandelbrot implements Fractal {
 	return iteration;
     }
 
+    /**
+     * Computes the divergence index of the complex number re + i * im
+     * on primitive doubles, in the same order of operations as the
+     * Complex based version so that both give the same index
+     *
+     * @param re The real part of the complex number
+     * @param im The imaginary part of the complex number
+     * @return The divergence index of re + i * im
+     */
+    @Override
+    public int computeDivergence(double re, double im){
+	if(interiorDetection)
+	    return computeInteriorDivergence(re, im);
+	int iteration = 0;
+	double zRe = 0.0;
+	double zIm = 0.0;
+	while(iteration < maxIteration - 1
+	      && zRe * zRe + zIm * zIm <= Fractal.SQUARED_RADIUS_BOUND){
+	    // z(n+1) = z(n)*z(n) + z
+	    double nextRe = zRe * zRe - zIm * zIm + re;
+	    zIm = zRe * zIm + zIm * zRe + im;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    // computes the divergence index of re + i * im, returning
+    // maxIteration - 1 early for the points detected inside the set
+    private int computeInteriorDivergence(double re, double im){
+	if(isInMainCardioidOrBulb(re, im))
+	    return maxIteration - 1;
+	int iteration = 0;
+	double zRe = 0.0;
+	double zIm = 0.0;
+	// Brent's cycle detection : the orbit is compared to a saved point
+	// that is moved forward each time the period to check doubles
+	double savedRe = 0.0;
+	double savedIm = 0.0;
+	int period = 0;
+	int periodToCheck = 2;
+	while(iteration < maxIteration - 1
+	      && zRe * zRe + zIm * zIm <= Fractal.SQUARED_RADIUS_BOUND){
+	    double nextRe = zRe * zRe - zIm * zIm + re;
+	    zIm = zRe * zIm + zIm * zRe + im;
+	    zRe = nextRe;
+	    iteration++;
+	    if(Math.abs(zRe - savedRe) < PERIODICITY_TOLERANCE
+	       && Math.abs(zIm - savedIm) < PERIODICITY_TOLERANCE)
+		return maxIteration - 1;
+	    period++;
+	    if(period == periodToCheck){
+		period = 0;
+		periodToCheck *= 2;
+		savedRe = zRe;
+		savedIm = zIm;
+	    }
+	}
+	return iteration;
+    }
+
+    // closed-form test of the main cardioid and of the period-2 bulb
+    private static boolean isInMainCardioidOrBulb(double re, double im){
+	double x = re - 0.25;
+	double q = x * x + im * im;
+	if(q * (q + x) <= 0.25 * im * im)
+	    return true;
+	double y = re + 1.0;
+	return y * y + im * im <= 0.0625;
+    }
+
     /**
      * Returns the width of the image that contains this Fractal
      *
@@ -271,12 +390,109 @@ public class Mandelbrot implements Fractal {
      * @return The color associated to the given int divergence index
      */
     public int getColorFromDivergenceIndex(int divergenceIndex){
-	if(divergenceIndex == maxIteration - 1)
-	    return 0;
-	return Color
-	    .HSBtoRGB((float)divergenceIndex * alphaColor / (float)maxIteration,
-		      betaColor,
-		      gammaColor);
+	return getPalette().getColor(divergenceIndex);
+    }
+
+    /**
+     * Returns a Mandelbrot set equal to this one but for its color factors
+     *
+     * @param alpha First factor
+     * @param beta Second factor
+     * @param gamma Third factor
+     * @return A new Mandelbrot instance with the given color factors
+     */
+    @Override
+    public Mandelbrot withColorFunction(float alpha, float beta,
+					float gamma){
+	return new Builder()
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(yMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alpha, beta, gamma)
+	    .interiorDetection(interiorDetection)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns a Mandelbrot set equal to this one but for its maximal
+     * number of iterations
+     *
+     * @param maxIteration The maximal number of iterations
+     * @return A new Mandelbrot instance with the given maximal number of
+     * iterations
+     */
+    @Override
+    public Mandelbrot withMaxIteration(int maxIteration){
+	return new Builder()
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(yMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor)
+	    .interiorDetection(interiorDetection)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns a Mandelbrot set equal to this one but for the window of
+     * the complex plane it represents, whose upper left point is
+     * (xMin, yMax)
+     *
+     * @param xMin The minimal value along the x-axis
+     * @param yMax The maximal value along the y-axis
+     * @param discreteStep The distance between two adjacent pixels
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @return A new Mandelbrot instance of the given window
+     */
+    @Override
+    public Mandelbrot withWindow(double xMin, double yMax,
+				 double discreteStep, int width, int height){
+	return new Builder()
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(xMin)
+	    .xMax(xMin + discreteStep * (width - 1))
+	    .yMin(yMax - discreteStep * (height - 1))
+	    .yMax(yMax)
+	    .imageWidth(width)
+	    .imageHeight(height)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor)
+	    .interiorDetection(interiorDetection)
+	    .renderStrategy(renderStrategy)
+	    .build();
+    }
+
+    /**
+     * Returns the palette holding the color of each divergence index,
+     * computed on first use
+     *
+     * @return The color palette of the fractal
+     */
+    @Override
+    public ColorPalette getPalette(){
+	ColorPalette p = palette;
+	if(p == null){
+	    // the shared palette is immutable, a racing thread gets the same
+	    p = ColorPalette.of(maxIteration, alphaColor, betaColor,
+				gammaColor);
+	    palette = p;
+	}
+	return p;
     }
     
     @Override
@@ -309,6 +525,11 @@ public class Mandelbrot implements Fractal {
 	return this.fractalType;
     }
 
+    @Override
+    public RenderStrategy getRenderStrategy(){
+	return this.renderStrategy;
+    }
+
     @Override
     public int getMaxIteration(){
 	return this.maxIteration;
@@ -328,4 +549,13 @@ public class Mandelbrot implements Fractal {
     public float getGammaColor(){
 	return this.gammaColor;
     }
+
+    /**
+     * Returns true if the points inside the set are detected early
+     *
+     * @return true if the interior detection is enabled
+     */
+    public boolean isInteriorDetection(){
+	return this.interiorDetection;
+    }
 }
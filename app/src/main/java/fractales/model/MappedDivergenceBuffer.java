@@ -0,0 +1,267 @@
+package fractales.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class stores the divergence indices of a fractal image in a file
+ * mapped in memory, so that the indices of images larger than the heap
+ * can be kept, and read again later without being computed.
+ * The file starts with a header of HEADER_SIZE bytes holding the
+ * dimensions of the image, the maximal number of iterations and a key
+ * describing the fractal, followed by the indices row after row, in the
+ * narrowest type that holds them like DivergenceBuffer.of.
+ * The file is mapped in segments of whole rows, as a single mapping
+ * cannot exceed 2 GB.
+ */
+public final class MappedDivergenceBuffer extends DivergenceBuffer
+    implements Closeable {
+
+    /**
+     * Size in bytes of the header preceding the indices
+     */
+    public static final int HEADER_SIZE = 4096;
+
+    // the first bytes of every file, and the version of its format
+    private static final int MAGIC = 0x46524456; // "FRDV"
+    private static final int VERSION = 1;
+
+    // the file mapped
+    private final Path path;
+    private final FileChannel channel;
+
+    // the maximal number of iterations of the fractal
+    private final int maxIteration;
+
+    // the description of the fractal whose indices are stored
+    private final String key;
+
+    // the size in bytes of an index and of a row
+    private final int bytesPerIndex;
+    private final int rowBytes;
+
+    // the segments of the file, each holding rowsPerSegment rows
+    private final MappedByteBuffer[] segments;
+    private final int rowsPerSegment;
+
+    // maps the indices of the file whose channel is given
+    private MappedDivergenceBuffer(Path path, FileChannel channel,
+				   int width, int height, int maxIteration,
+				   String key, boolean readOnly)
+	throws IOException {
+	super(width, height);
+	this.path = path;
+	this.channel = channel;
+	this.maxIteration = maxIteration;
+	this.key = key;
+	this.bytesPerIndex = bytesPerIndex(maxIteration);
+	if((long)width * bytesPerIndex > Integer.MAX_VALUE)
+	    throw new IllegalArgumentException("Invalid buffer size : "
+					       + width + "x" + height);
+	this.rowBytes = width * bytesPerIndex;
+	this.rowsPerSegment =
+	    rowBytes == 0 ? Math.max(1, height)
+	    : Integer.MAX_VALUE / rowBytes;
+	int count = height == 0 ? 0
+	    : (height + rowsPerSegment - 1) / rowsPerSegment;
+	this.segments = new MappedByteBuffer[count];
+	FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY
+	    : FileChannel.MapMode.READ_WRITE;
+	for(int s = 0; s < count; s++){
+	    int rows = Math.min(rowsPerSegment, height - s * rowsPerSegment);
+	    long position = HEADER_SIZE + (long)s * rowsPerSegment * rowBytes;
+	    segments[s] = channel.map(mode, position, (long)rows * rowBytes);
+	    segments[s].order(ByteOrder.LITTLE_ENDIAN);
+	}
+    }
+
+    /**
+     * Creates the specified file, replacing any existing file, to store
+     * width x height divergence indices, all 0, of a fractal of the given
+     * maximal number of iterations
+     *
+     * @param path The file to create
+     * @param width The width in pixels of the image
+     * @param height The height in pixels of the image
+     * @param maxIteration The maximal number of iterations of the fractal
+     * @param key The description of the fractal, stored in the header
+     * @return A new buffer mapped on the file
+     * @throws IOException if the file cannot be created
+     * @throws IllegalArgumentException if the dimensions are negative or
+     * the key does not fit in the header
+     */
+    public static MappedDivergenceBuffer create(Path path, int width,
+						int height, int maxIteration,
+						String key)
+	throws IOException {
+	byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+	if(keyBytes.length > HEADER_SIZE - 6 * Integer.BYTES)
+	    throw new IllegalArgumentException("Key too long : " + key);
+	if(width < 0 || height < 0)
+	    throw new IllegalArgumentException("Invalid buffer size : "
+					       + width + "x" + height);
+	FileChannel channel =
+	    FileChannel.open(path, StandardOpenOption.CREATE,
+			     StandardOpenOption.TRUNCATE_EXISTING,
+			     StandardOpenOption.READ,
+			     StandardOpenOption.WRITE);
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+		.putInt(MAGIC)
+		.putInt(VERSION)
+		.putInt(width)
+		.putInt(height)
+		.putInt(maxIteration)
+		.putInt(keyBytes.length)
+		.put(keyBytes);
+	    header.rewind();
+	    while(header.hasRemaining()){
+		channel.write(header);
+	    }
+	    return new MappedDivergenceBuffer(path, channel, width, height,
+					      maxIteration, key, false);
+	} catch(IOException | RuntimeException e){
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * Opens a file created by create and maps its divergence indices
+     *
+     * @param path The file to open
+     * @param readOnly true to map the indices read only
+     * @return A buffer mapped on the file
+     * @throws IOException if the file cannot be read or is not a file of
+     * divergence indices
+     */
+    public static MappedDivergenceBuffer open(Path path, boolean readOnly)
+	throws IOException {
+	FileChannel channel = readOnly
+	    ? FileChannel.open(path, StandardOpenOption.READ)
+	    : FileChannel.open(path, StandardOpenOption.READ,
+			       StandardOpenOption.WRITE);
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    while(header.hasRemaining()){
+		if(channel.read(header, header.position()) < 0)
+		    throw new IOException("Truncated header : " + path);
+	    }
+	    header.flip();
+	    if(header.getInt() != MAGIC || header.getInt() != VERSION)
+		throw new IOException("Not a divergence index file : " + path);
+	    int width = header.getInt();
+	    int height = header.getInt();
+	    int maxIteration = header.getInt();
+	    int keyLength = header.getInt();
+	    if(width < 0 || height < 0 || keyLength < 0
+	       || keyLength > header.remaining())
+		throw new IOException("Corrupted header : " + path);
+	    byte[] keyBytes = new byte[keyLength];
+	    header.get(keyBytes);
+	    long size = HEADER_SIZE + (long)width * height
+		* bytesPerIndex(maxIteration);
+	    if(channel.size() < size)
+		throw new IOException("Truncated file : " + path);
+	    return new MappedDivergenceBuffer(path, channel, width, height,
+					      maxIteration,
+					      new String(keyBytes,
+							 StandardCharsets.UTF_8),
+					      readOnly);
+	} catch(IOException | RuntimeException e){
+	    channel.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * Returns the file holding the indices
+     *
+     * @return The path to the file
+     */
+    public Path getPath(){
+	return path;
+    }
+
+    /**
+     * Returns the maximal number of iterations of the fractal
+     *
+     * @return The maximal number of iterations
+     */
+    public int getMaxIteration(){
+	return maxIteration;
+    }
+
+    /**
+     * Returns the description of the fractal stored in the header
+     *
+     * @return The key given on creation
+     */
+    public String getKey(){
+	return key;
+    }
+
+    @Override
+    public int getBytesPerIndex(){
+	return bytesPerIndex;
+    }
+
+    @Override
+    public int get(int x, int y){
+	MappedByteBuffer segment = segments[y / rowsPerSegment];
+	int position = (y % rowsPerSegment) * rowBytes + x * bytesPerIndex;
+	switch(bytesPerIndex){
+	case Byte.BYTES:
+	    return segment.get(position) & 0xFF;
+	case Character.BYTES:
+	    return segment.getChar(position);
+	default:
+	    return segment.getInt(position);
+	}
+    }
+
+    @Override
+    public void set(int x, int y, int index){
+	MappedByteBuffer segment = segments[y / rowsPerSegment];
+	int position = (y % rowsPerSegment) * rowBytes + x * bytesPerIndex;
+	switch(bytesPerIndex){
+	case Byte.BYTES:
+	    segment.put(position, (byte)index);
+	    break;
+	case Character.BYTES:
+	    segment.putChar(position, (char)index);
+	    break;
+	default:
+	    segment.putInt(position, index);
+	}
+    }
+
+    /**
+     * Writes the modified indices to the file
+     */
+    public void force(){
+	for(MappedByteBuffer segment : segments){
+	    if(!segment.isReadOnly())
+		segment.force();
+	}
+    }
+
+    /**
+     * Writes the modified indices to the file and closes it. The indices
+     * remain readable until the buffer is garbage collected
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+	force();
+	channel.close();
+    }
+}
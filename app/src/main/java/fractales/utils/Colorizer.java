@@ -0,0 +1,74 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import fractales.model.ColorPalette;
+import fractales.model.DivergenceBuffer;
+
+/**
+ * This class is used to color the pixels of an image from divergence
+ * indices that are already computed.
+ * The rows of the image are split in halves until a band of rows is
+ * small enough to be colored by a single thread.
+ */
+public class Colorizer extends RecursiveAction {
+
+    /**
+     * Number of pixels under which a band of rows is colored at once
+     */
+    public static final int BAND_PIXELS = 1 << 16;
+
+    int x0, y0, x1, y1; // the pixels [x0, x1) x [y0, y1)
+    DivergenceBuffer buffer; // the divergence indices
+    ColorPalette palette; // the color of each divergence index
+    int[] pixels; // the RGB pixels of the image
+    int offset; // position of pixel (0, 0), possibly outside pixels
+    int scanline; // distance between two vertically adjacent pixels
+
+    /**
+     * Instantiates a Colorizer with the specified arguments. The color
+     * of pixel (x, y) is written at position offset + y * scanline + x
+     * of pixels, computed modulo 2^32 so that the offset of a region far
+     * from pixel (0, 0) can be negative
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     * @param buffer The divergence indices
+     * @param palette The color of each divergence index
+     * @param pixels The RGB pixels of the image
+     * @param offset The position of pixel (0, 0)
+     * @param scanline The distance between two vertically adjacent pixels
+     */
+    public Colorizer(int x0, int y0, int x1, int y1, DivergenceBuffer buffer,
+		     ColorPalette palette, int[] pixels, int offset,
+		     int scanline){
+	this.x0 = x0;
+	this.y0 = y0;
+	this.x1 = x1;
+	this.y1 = y1;
+	this.buffer = buffer;
+	this.palette = palette;
+	this.pixels = pixels;
+	this.offset = offset;
+	this.scanline = scanline;
+    }
+
+    @Override
+    protected void compute(){
+	if(y1 - y0 <= 1 || (long)(y1 - y0) * (x1 - x0) <= BAND_PIXELS){
+	    for(int y = y0; y < y1; y++){
+		int row = offset + y * scanline;
+		for(int x = x0; x < x1; x++){
+		    pixels[row + x] = palette.getColor(buffer.get(x, y));
+		}
+	    }
+	    return;
+	}
+	int middle = (y0 + y1) / 2;
+	invokeAll(new Colorizer(x0, y0, x1, middle, buffer, palette, pixels,
+				offset, scanline),
+		  new Colorizer(x0, middle, x1, y1, buffer, palette, pixels,
+				offset, scanline));
+    }
+}
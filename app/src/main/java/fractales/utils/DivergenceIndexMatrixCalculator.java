@@ -5,53 +5,129 @@ import fractales.model.*;
 
 /**
  * This class is used to compute the divergence index matrix.
- * It uses a pool of threads in order to do so
+ * It uses a pool of threads in order to do so.
+ * The rectangle of pixels is split in two halves along its longest side,
+ * on tile boundaries, until it is a single tile or the pool already has
+ * enough queued work for the idle threads to steal. The recursive
+ * bisection keeps the tiles of a task next to each other, and each tile
+ * is computed row by row.
  */
 public class DivergenceIndexMatrixCalculator extends RecursiveAction {
-    int from, to; // boundaries
-    int[][] results; // resulting array of divergence indices
+
+    /**
+     * Number of queued tasks above which a task stops splitting itself,
+     * as the other threads of the pool have enough work to steal
+     */
+    public static final int SURPLUS_THRESHOLD = 3;
+
+    int x0, y0, x1, y1; // boundaries, x1 and y1 excluded
+    int tileSize; // side of the smallest square of pixels computed at once
+    RenderTarget results; // receives the divergence indices
     Fractal fractal; // the fractal being built
 
+    // true if the rows are computed by batches with the SIMD kernel
+    private static volatile boolean vectorized = false;
+
     /**
      * Instantiates a Calculator with the specified arguments
      *
-     * @param from The starting index 
-     * @param to The ending index
-     * @param results The array to fill with divergence indices
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     * @param tileSize The side of the smallest square of pixels
+     * @param results The target of the divergence indices
      * @param fractal The fractal being built
      */
-    public DivergenceIndexMatrixCalculator(int from, int to, int[][] results,
+    public DivergenceIndexMatrixCalculator(int x0, int y0, int x1, int y1,
+					   int tileSize, RenderTarget results,
 					   Fractal fractal){
-	this.from = from;
-	this.to = to;
+	this.x0 = x0;
+	this.y0 = y0;
+	this.x1 = x1;
+	this.y1 = y1;
+	this.tileSize = tileSize;
 	this.results = results;
 	this.fractal = fractal;
     }
 
+    /**
+     * Enables or disables the SIMD kernel for the following computations.
+     * The kernel can only be enabled if the jdk.incubator.vector module
+     * is present, the scalar kernel is used otherwise
+     *
+     * @param enable true to use the SIMD kernel
+     * @return true if the SIMD kernel is used, false otherwise
+     */
+    public static boolean setVectorized(boolean enable){
+	vectorized = enable && ModuleLayer.boot()
+	    .findModule("jdk.incubator.vector").isPresent();
+	return vectorized;
+    }
+
+    // returns true if the SIMD kernel is enabled
+    static boolean isVectorized(){
+	return vectorized;
+    }
+
     @Override
     protected void compute(){
-	if(to - from < fractal.getWidth() / 8){
+	int width = x1 - x0;
+	int height = y1 - y0;
+	if(width <= 0 || height <= 0 || results.isCancelled())
+	    return;
+	if((width <= tileSize && height <= tileSize)
+	   || getSurplusQueuedTaskCount() > SURPLUS_THRESHOLD){
 	    computeDirectly();
 	    return;
 	}
-	int middle = (from + to) / 2;
-	invokeAll(new DivergenceIndexMatrixCalculator(from, middle, results,
-						      fractal),
-		  new DivergenceIndexMatrixCalculator(middle, to, results,
-						      fractal));
+	if(width >= height){
+	    int middle = x0 + tilesIn(width) / 2 * tileSize;
+	    invokeAll(split(x0, y0, middle, y1), split(middle, y0, x1, y1));
+	} else {
+	    int middle = y0 + tilesIn(height) / 2 * tileSize;
+	    invokeAll(split(x0, y0, x1, middle), split(x0, middle, x1, y1));
+	}
     }
 
-    // computes divergence indices from index from to index to
+    // number of tiles along a side of the specified length
+    private int tilesIn(int length){
+	return (length + tileSize - 1) / tileSize;
+    }
+
+    // a calculator for a part of this rectangle
+    private DivergenceIndexMatrixCalculator split(int x0, int y0,
+						  int x1, int y1){
+	return new DivergenceIndexMatrixCalculator(x0, y0, x1, y1, tileSize,
+						   results, fractal);
+    }
+
+    // computes the tiles of the rectangle one after the other, stopping
+    // once the rendering is cancelled
     private void computeDirectly(){
-	for(int i = from; i < to; i++){
-	    for(int j = 0; j < fractal.getHeight() - 1; j++){
-		Complex complex =
-		    Complex.of(fractal.getXMin()
-			       + (fractal.getDiscreteStep() * i),
-			       fractal.getYMax()
-			       - (fractal.getDiscreteStep() * j));
-		results[i][j] = fractal.computeDivergence(complex);
+	for(int ty = y0; ty < y1; ty += tileSize){
+	    for(int tx = x0; tx < x1; tx += tileSize){
+		if(results.isCancelled())
+		    return;
+		computeTile(tx, ty, Math.min(tx + tileSize, x1),
+			    Math.min(ty + tileSize, y1));
+	    }
+	}
+    }
+
+    // computes divergence indices of a tile row by row
+    private void computeTile(int x0, int y0, int x1, int y1){
+	Grid grid = Grid.of(fractal);
+	boolean simd = vectorized && VectorKernel.supports(fractal);
+	for(int j = y0; j < y1; j++){
+	    double im = grid.im(j);
+	    int i = x0;
+	    if(simd)
+		i = VectorKernel.computeRow(fractal, grid, results, j, x0, x1);
+	    for(; i < x1; i++){
+		results.set(i, j, fractal.computeDivergence(grid.re(i), im));
 	    }
 	}
+	results.tileRendered(x0, y0, x1, y1);
     }
 }
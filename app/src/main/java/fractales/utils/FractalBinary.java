@@ -0,0 +1,324 @@
+package fractales.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+import fractales.model.Fractal.RenderStrategy;
+
+/**
+ * This class saves a fractal along with its divergence indices in a
+ * binary .frac file, and loads it back without computing the indices.
+ * The file starts with a versioned header holding every parameter of
+ * the builder of the fractal. It is followed by the divergence indices
+ * row after row, each stored as the difference with the index on its
+ * left, zigzag encoded in a variable number of bytes, and compressed
+ * with the fastest deflate level.
+ */
+public class FractalBinary {
+
+    /**
+     * Version of the format written by this class
+     */
+    public static final int VERSION = 1;
+
+    // the first bytes of every file
+    private static final int MAGIC = 0x46524143; // "FRAC"
+
+    // size of the buffers of the streams
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the saved fractal
+    private final Fractal fractal;
+
+    // the divergence indices of the fractal
+    private final DivergenceBuffer buffer;
+
+    // instantiates this class
+    private FractalBinary(Fractal fractal, DivergenceBuffer buffer){
+	RenderEngine.checkDimensions(fractal, buffer);
+	this.fractal = fractal;
+	this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new instance of this class with the specified fractal and
+     * its divergence indices
+     *
+     * @param fractal The fractal to save
+     * @param buffer The divergence indices of the fractal
+     * @return A new instance of this class
+     * @throws IllegalArgumentException if the dimensions of the buffer
+     * are not the ones of the fractal image
+     */
+    public static FractalBinary of(Fractal fractal, DivergenceBuffer buffer){
+	return new FractalBinary(fractal, buffer);
+    }
+
+    /**
+     * Returns the saved fractal
+     *
+     * @return The saved fractal
+     */
+    public Fractal getFractal(){
+	return fractal;
+    }
+
+    /**
+     * Returns the divergence indices of the saved fractal
+     *
+     * @return The divergence indices of the fractal
+     */
+    public DivergenceBuffer getDivergenceBuffer(){
+	return buffer;
+    }
+
+    /**
+     * Saves at the same location of the fractal image a binary file
+     * that allows the user to load the generated fractal without
+     * computing it
+     */
+    public void saveFile(){
+	try {
+	    write(new File("/tmp/" + fractal.getFileName() + ".frac"));
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING FRAC");
+	    System.exit(-1);
+	}
+    }
+
+    /**
+     * Writes the fractal and its divergence indices in the specified file
+     *
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+	try(DataOutputStream out =
+	    new DataOutputStream(new BufferedOutputStream(
+				     new FileOutputStream(file),
+				     BUFFER_SIZE))){
+	    writeHeader(out);
+	    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	    try {
+		DeflaterOutputStream indices =
+		    new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+		writeIndices(indices);
+		indices.finish();
+	    } finally {
+		deflater.end();
+	    }
+	}
+    }
+
+    // writes the parameters of the builder of the fractal
+    private void writeHeader(DataOutputStream out) throws IOException {
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeUTF(fractal.getFractalType().name());
+	if(fractal.getFractalType() == FractalType.JULIA){
+	    Julia julia = (Julia)fractal;
+	    writeComplex(out, julia.getComplexConstant());
+	    writeComplex(out, julia.getAlphaFactor());
+	    writeComplex(out, julia.getBetaFactor());
+	} else {
+	    out.writeBoolean(((Mandelbrot)fractal).isInteriorDetection());
+	}
+	out.writeInt(fractal.getMaxIteration());
+	out.writeDouble(fractal.getDiscreteStep());
+	out.writeDouble(fractal.getXMin());
+	out.writeDouble(fractal.getXMax());
+	out.writeDouble(fractal.getYMin());
+	out.writeDouble(fractal.getYMax());
+	out.writeInt(fractal.getWidth());
+	out.writeInt(fractal.getHeight());
+	out.writeUTF(fractal.getFileName());
+	out.writeFloat(fractal.getAlphaColor());
+	out.writeFloat(fractal.getBetaColor());
+	out.writeFloat(fractal.getGammaColor());
+	out.writeUTF(fractal.getRenderStrategy().name());
+    }
+
+    // writes the real and imaginary parts of a complex number
+    private static void writeComplex(DataOutputStream out, Complex c)
+	throws IOException {
+	out.writeDouble(c.getRe());
+	out.writeDouble(c.getIm());
+    }
+
+    // writes the differences between adjacent indices of each row
+    private void writeIndices(OutputStream out) throws IOException {
+	int w = buffer.getWidth();
+	byte[] bytes = new byte[BUFFER_SIZE + 5];
+	int size = 0;
+	for(int y = 0; y < buffer.getHeight(); y++){
+	    int previous = 0;
+	    for(int x = 0; x < w; x++){
+		int index = buffer.get(x, y);
+		int delta = index - previous;
+		previous = index;
+		// zigzag : small negative and positive deltas are small
+		int v = (delta << 1) ^ (delta >> 31);
+		while((v & ~0x7F) != 0){
+		    bytes[size++] = (byte)((v & 0x7F) | 0x80);
+		    v >>>= 7;
+		}
+		bytes[size++] = (byte)v;
+		if(size >= BUFFER_SIZE){
+		    out.write(bytes, 0, size);
+		    size = 0;
+		}
+	    }
+	}
+	out.write(bytes, 0, size);
+    }
+
+    /**
+     * Loads a fractal and its divergence indices from the specified
+     * file, written by write or saveFile
+     *
+     * @param file The file to read
+     * @return A new instance of this class holding the loaded fractal
+     * @throws IOException if the file cannot be read or is not a .frac
+     * file of a known version
+     */
+    public static FractalBinary read(File file) throws IOException {
+	try(DataInputStream in =
+	    new DataInputStream(new BufferedInputStream(
+				    new FileInputStream(file),
+				    BUFFER_SIZE))){
+	    if(in.readInt() != MAGIC)
+		throw new IOException("Not a .frac file : " + file);
+	    int version = in.readInt();
+	    if(version != VERSION)
+		throw new IOException("Unknown .frac version " + version
+				      + " : " + file);
+	    Fractal fractal = readHeader(in);
+	    DivergenceBuffer buffer =
+		DivergenceBuffer.of(fractal.getWidth(), fractal.getHeight(),
+				    fractal.getMaxIteration());
+	    Inflater inflater = new Inflater();
+	    try {
+		readIndices(new InflaterInputStream(in, inflater, BUFFER_SIZE),
+			    buffer);
+	    } finally {
+		inflater.end();
+	    }
+	    return new FractalBinary(fractal, buffer);
+	} catch(IllegalArgumentException e){
+	    throw new IOException("Corrupted .frac file : " + file, e);
+	}
+    }
+
+    // reads the parameters of the builder of the fractal and builds it
+    private static Fractal readHeader(DataInputStream in) throws IOException {
+	FractalType type = FractalType.valueOf(in.readUTF());
+	Complex constant = null;
+	Complex alpha = null;
+	Complex beta = null;
+	boolean interiorDetection = false;
+	if(type == FractalType.JULIA){
+	    constant = readComplex(in);
+	    alpha = readComplex(in);
+	    beta = readComplex(in);
+	} else {
+	    interiorDetection = in.readBoolean();
+	}
+	int maxIteration = in.readInt();
+	double step = in.readDouble();
+	double xMin = in.readDouble();
+	double xMax = in.readDouble();
+	double yMin = in.readDouble();
+	double yMax = in.readDouble();
+	int width = in.readInt();
+	int height = in.readInt();
+	String fileName = in.readUTF();
+	float alphaColor = in.readFloat();
+	float betaColor = in.readFloat();
+	float gammaColor = in.readFloat();
+	RenderStrategy strategy = RenderStrategy.valueOf(in.readUTF());
+
+	if(type == FractalType.JULIA){
+	    return new Julia.Builder()
+		.complexConstant(constant)
+		.iterationFunction(alpha, beta)
+		.maxIteration(maxIteration)
+		.discreteStep(step)
+		.xMin(xMin)
+		.xMax(xMax)
+		.yMin(yMin)
+		.yMax(yMax)
+		.imageWidth(width)
+		.imageHeight(height)
+		.fileName(fileName)
+		.colorFunction(alphaColor, betaColor, gammaColor)
+		.renderStrategy(strategy)
+		.build();
+	}
+	return new Mandelbrot.Builder()
+	    .maxIteration(maxIteration)
+	    .discreteStep(step)
+	    .xMin(xMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(yMax)
+	    .imageWidth(width)
+	    .imageHeight(height)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor)
+	    .interiorDetection(interiorDetection)
+	    .renderStrategy(strategy)
+	    .build();
+    }
+
+    // reads the real and imaginary parts of a complex number
+    private static Complex readComplex(DataInputStream in)
+	throws IOException {
+	double re = in.readDouble();
+	double im = in.readDouble();
+	return Complex.of(re, im);
+    }
+
+    // reads the differences between adjacent indices of each row
+    private static void readIndices(InputStream in, DivergenceBuffer buffer)
+	throws IOException {
+	byte[] bytes = new byte[BUFFER_SIZE];
+	int size = 0;
+	int position = 0;
+	int w = buffer.getWidth();
+	for(int y = 0; y < buffer.getHeight(); y++){
+	    int previous = 0;
+	    for(int x = 0; x < w; x++){
+		int v = 0;
+		for(int shift = 0; ; shift += 7){
+		    if(position == size){
+			size = in.readNBytes(bytes, 0, bytes.length);
+			position = 0;
+			if(size == 0)
+			    throw new EOFException("Truncated indices");
+		    }
+		    byte b = bytes[position++];
+		    v |= (b & 0x7F) << shift;
+		    if(b >= 0)
+			break;
+		}
+		previous += (v >>> 1) ^ -(v & 1);
+		buffer.set(x, y, previous);
+	    }
+	}
+    }
+}
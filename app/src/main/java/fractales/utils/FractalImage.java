@@ -1,10 +1,12 @@
 package fractales.utils;
 
+import fractales.model.DivergenceBuffer;
 import fractales.model.Fractal;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
-import javax.imageio.ImageIO;
+import java.util.concurrent.ForkJoinTask;
 import java.awt.Color;
 
 /**
@@ -20,9 +22,24 @@ public class FractalImage {
     // path to the file
     private String path;
 
+    // true if the divergence indices are kept along with the image
+    private boolean keepDivergenceBuffer;
+
+    // the divergence indices of the last image created, if kept
+    private DivergenceBuffer divergenceBuffer;
+
+    // the image moved or zoomed from, whose indices are reused, null if
+    // none
+    private FractalImage parent;
+
+    // false if the indices are neither looked up in the cache nor stored
+    // there
+    private boolean cached = true;
+
     // instantiates a FractalImage from a Fractal object
-    private FractalImage(Fractal fractal){
+    private FractalImage(Fractal fractal, boolean keepDivergenceBuffer){
 	this.fractal = fractal;
+	this.keepDivergenceBuffer = keepDivergenceBuffer;
     }
 
     /**
@@ -32,7 +49,69 @@ public class FractalImage {
      * @return A new FractalImage instance of the given fractal
      */
     public static FractalImage of(Fractal fractal){
-	return new FractalImage(fractal);
+	return new FractalImage(fractal, true);
+    }
+
+    /**
+     * Returns a new FractalImage instance that contains the image
+     * of the specified Fractal fractal, and keeps its divergence indices
+     * only if keepDivergenceBuffer is true
+     * @param fractal The fractal to represent
+     * @param keepDivergenceBuffer false if only the image is needed
+     * @return A new FractalImage instance of the given fractal
+     */
+    public static FractalImage of(Fractal fractal,
+				  boolean keepDivergenceBuffer){
+	return new FractalImage(fractal, keepDivergenceBuffer);
+    }
+
+    /**
+     * Returns a new FractalImage instance that colors the specified
+     * divergence indices of the fractal, already computed, such as the
+     * ones of a MappedDivergenceBuffer
+     * @param fractal The fractal to represent
+     * @param divergenceBuffer The divergence indices of the fractal
+     * @return A new FractalImage instance of the given fractal
+     * @throws IllegalArgumentException if the dimensions of the buffer
+     * are not the ones of the fractal image
+     */
+    public static FractalImage of(Fractal fractal,
+				  DivergenceBuffer divergenceBuffer){
+	RenderEngine.checkDimensions(fractal, divergenceBuffer);
+	FractalImage fi = new FractalImage(fractal, true);
+	fi.divergenceBuffer = divergenceBuffer;
+	return fi;
+    }
+
+    /**
+     * Returns a new FractalImage instance of the specified fractal, moved
+     * or zoomed from the fractal of the parent image, that copies the
+     * divergence indices kept by the parent where the grids of the two
+     * fractals coincide instead of computing them
+     * @param parent The image moved or zoomed from, or null
+     * @param fractal The fractal to represent
+     * @return A new FractalImage instance of the given fractal
+     */
+    public static FractalImage zoomOf(FractalImage parent, Fractal fractal){
+	FractalImage fi = new FractalImage(fractal, true);
+	fi.parent = parent;
+	return fi;
+    }
+
+    /**
+     * Returns a new FractalImage instance of the specified frame rendered
+     * while the view is moved, reusing the indices of the parent image
+     * like zoomOf. The indices of the frame are neither looked up in the
+     * cache nor stored there, and are only kept to be reused by the next
+     * frame
+     * @param parent The image moved or zoomed from, or null
+     * @param frame The fractal of the frame
+     * @return A new FractalImage instance of the given frame
+     */
+    public static FractalImage frameOf(FractalImage parent, Fractal frame){
+	FractalImage fi = zoomOf(parent, frame);
+	fi.cached = false;
+	return fi;
     }
 
     /**
@@ -45,18 +124,194 @@ public class FractalImage {
 	int h = fractal.getHeight();
 	var img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 
-	int[][] divMatrix = fractal.getDivergenceIndexMatrix();
-	int rgb = 0;
+	// the tasks computing the fractal color the pixels of the raster
+	int[] pixels =
+	    ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+	render(pixels, null);
+	return img;
+    }
 
-	for(int i = 0; i < w - 1; i++){
-	    for(int j = 0; j < h - 1; j++){
-		rgb = fractal.getColorFromDivergenceIndex(divMatrix[i][j]);
-		img.setRGB(i, j, rgb);
-	    }
+    /**
+     * Computes the RGB pixels of the image of the fractal, row after row,
+     * in the specified array, reporting the tiles rendered to the listener
+     * from the render threads so that the image can be displayed while
+     * it is computed
+     *
+     * @param pixels The pixels of the image, of width x height pixels
+     * @param listener The listener of the progress, or null
+     * @throws java.util.concurrent.CancellationException if the listener
+     * cancelled the rendering, whose pixels are then incomplete
+     */
+    public void render(int[] pixels, RenderListener listener){
+	int w = fractal.getWidth();
+	if(divergenceBuffer != null){
+	    RenderEngine.colorize(fractal, divergenceBuffer, pixels, w);
+	    if(listener != null)
+		listener.tileCopied(0, 0, w, fractal.getHeight());
+	} else if(parent != null && parent.getDivergenceBuffer() != null){
+	    divergenceBuffer = cached
+		? RenderEngine.renderZoom(fractal, parent.getFractal(),
+					  parent.getDivergenceBuffer(), pixels,
+					  w, listener)
+		: RenderEngine.renderZoomUncached(fractal, parent.getFractal(),
+						  parent.getDivergenceBuffer(),
+						  pixels, w, listener);
+	    parent = null; // releases the indices of the parent
+	} else if(!cached){
+	    divergenceBuffer =
+		RenderEngine.renderUncached(fractal, keepDivergenceBuffer,
+					    pixels, w, listener);
+	} else {
+	    divergenceBuffer =
+		RenderEngine.render(fractal, keepDivergenceBuffer, pixels, w,
+				    listener);
+	}
+    }
+
+    /**
+     * Computes the RGB pixels of the image of the fractal like render, in
+     * passes of decreasing stride, each pass being reported to the
+     * listener once the pixels hold its preview. The divergence indices
+     * are kept
+     *
+     * @param pixels The pixels of the image, of width x height pixels
+     * @param listener The listener of the progress, or null
+     * @throws java.util.concurrent.CancellationException if the listener
+     * cancelled the rendering, whose pixels are then incomplete
+     */
+    public void renderProgressive(int[] pixels, RenderListener listener){
+	if(divergenceBuffer != null){
+	    render(pixels, listener);
+	    if(listener != null)
+		listener.passRendered(1);
+	} else if(parent != null && parent.getDivergenceBuffer() != null){
+	    // a zoom is previewed from the pixels of its parent
+	    render(pixels, listener);
+	} else if(!cached){
+	    // the passes would be cached
+	    render(pixels, listener);
+	    if(listener != null)
+		listener.passRendered(1);
+	} else {
+	    divergenceBuffer =
+		RenderEngine.renderProgressive(fractal, pixels,
+					       fractal.getWidth(), listener);
 	}
+    }
+
+    /**
+     * Starts computing the RGB pixels of the image of the fractal on the
+     * shared pool, progressively or not, and returns the handle of the
+     * rendering, whose join method waits for the pixels
+     *
+     * @param pixels The pixels of the image, of width x height pixels
+     * @param progressive true to render in passes of decreasing stride
+     * @param listener The listener of the progress, or null
+     * @param timeoutMillis The time given to the rendering in
+     * milliseconds, or 0 for no deadline
+     * @return The handle of the rendering
+     */
+    public RenderHandle submit(int[] pixels, boolean progressive,
+			       RenderListener listener, long timeoutMillis){
+	RenderHandle handle = RenderHandle.of(listener, timeoutMillis);
+	handle.start(RenderEngine.getPool().submit(ForkJoinTask.adapt(() -> {
+			if(progressive)
+			    renderProgressive(pixels, handle);
+			else
+			    render(pixels, handle);
+		    })));
+	return handle;
+    }
+
+    /**
+     * Returns a BufferedImage containing the region of the image of the
+     * fractal whose upper left pixel is (x, y). The divergence indices
+     * of the region are computed unless they are kept
+     *
+     * @param x The first column of the region
+     * @param y The first row of the region
+     * @param width The width in pixels of the region
+     * @param height The height in pixels of the region
+     * @return A BufferedImage containing the region
+     * @throws IllegalArgumentException if the region is empty or not
+     * inside the image
+     */
+    public BufferedImage createImage(int x, int y, int width, int height){
+	if(width <= 0 || height <= 0 || x < 0 || y < 0
+	   || x > fractal.getWidth() - width
+	   || y > fractal.getHeight() - height)
+	    throw new IllegalArgumentException("Invalid region : " + width
+					       + "x" + height + " at ("
+					       + x + ", " + y + ")");
+	if(divergenceBuffer == null)
+	    divergenceBuffer =
+		RenderEngine.computeDivergenceBuffer(fractal);
+	var img = new BufferedImage(width, height,
+				    BufferedImage.TYPE_INT_RGB);
+	int[] pixels =
+	    ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+	// the last row and column of the image are left black
+	int x1 = Math.min(x + width, fractal.getWidth() - 1);
+	int y1 = Math.min(y + height, fractal.getHeight() - 1);
+	if(x < x1 && y < y1)
+	    RenderEngine.colorize(fractal, divergenceBuffer, x, y, x1, y1,
+				  pixels, -(y * width + x), width);
 	return img;
     }
 
+    /**
+     * Returns the image of the specified fractal, which only differs from
+     * the fractal of this image by its color factors. If the divergence
+     * indices of this image are kept, the new image only colors them
+     * again instead of computing them
+     *
+     * @param recolored The fractal with other color factors
+     * @return A new FractalImage instance of the given fractal
+     * @throws IllegalArgumentException if the divergence indices of the
+     * fractals differ
+     */
+    public FractalImage recolor(Fractal recolored){
+	if(!RenderKey.of(fractal).equals(RenderKey.of(recolored)))
+	    throw new IllegalArgumentException("Not a recoloring of "
+					       + fractal.getFileName());
+	FractalImage fi = new FractalImage(recolored, keepDivergenceBuffer);
+	fi.divergenceBuffer = divergenceBuffer;
+	return fi;
+    }
+
+    /**
+     * Returns the image of the fractal of this image with the specified
+     * color factors, coloring again its divergence indices if they are
+     * kept
+     *
+     * @param alpha First factor
+     * @param beta Second factor
+     * @param gamma Third factor
+     * @return A new FractalImage instance of the recolored fractal
+     */
+    public FractalImage recolor(float alpha, float beta, float gamma){
+	return recolor(fractal.withColorFunction(alpha, beta, gamma));
+    }
+
+    /**
+     * Returns the fractal represented by this image
+     *
+     * @return The fractal represented by this image
+     */
+    public Fractal getFractal(){
+	return fractal;
+    }
+
+    /**
+     * Returns the divergence indices of the last image created
+     *
+     * @return The divergence indices of the image, or null if they are
+     * not kept or no image was created
+     */
+    public DivergenceBuffer getDivergenceBuffer(){
+	return divergenceBuffer;
+    }
+
     /**
      * Creates an image of the fractal and saves it in a .png file
      * which name is the return value of the function getFileName() on the
@@ -64,13 +319,33 @@ public class FractalImage {
      */
 
     public void saveFile(){
+	saveFile(null);
+    }
+
+    /**
+     * Saves the specified pixels of the image of the fractal, already
+     * rendered, in the .png file of saveFile, which creates the image if
+     * pixels is null
+     *
+     * @param pixels The RGB pixels of the image, row after row, or null
+     */
+    public void saveFile(int[] pixels){
 	FractalText ft = FractalText.of(fractal);
 	ft.saveFile();
 	File file =
 	    new File("/tmp/" + fractal.getFileName() + ".png");
 	path = file.getAbsolutePath();
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
 	try {
-	    ImageIO.write(createImage(), "PNG", file);
+	    if(pixels == null){
+		BufferedImage img = createImage();
+		pixels =
+		    ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+	    }
+	    try(PngWriter png = PngWriter.of(file, w, h)){
+		png.writeRows(pixels, 0, w, h);
+	    }
 	} catch (Exception e){
 	    e.printStackTrace();
 	    System.out.println("ERROR SAVING PNG");
@@ -78,6 +353,18 @@ public class FractalImage {
 	}
     }
 
+    /**
+     * Saves the fractal and its divergence indices in a .frac file which
+     * name is the return value of the function getFileName() on the
+     * fractal, with .frac concatenated, so that it can be loaded without
+     * computing it. The indices are computed unless they are kept
+     */
+    public void saveBinary(){
+	if(divergenceBuffer == null)
+	    divergenceBuffer = RenderEngine.computeDivergenceBuffer(fractal);
+	FractalBinary.of(fractal, divergenceBuffer).saveFile();
+    }
+
     /**
      * Returns the path to the image
      *
@@ -0,0 +1,130 @@
+package fractales.utils;
+
+import fractales.model.Fractal;
+
+/**
+ * This class chooses the resolution and the maximal number of iterations
+ * of the frames rendered while the user interacts, so that a frame takes
+ * about a given time to render.
+ * The time taken by the recent frames, per pixel and per iteration
+ * allowed, is averaged. A frame is rendered at the highest resolution,
+ * every REDUCTION in each dimension, whose estimated time fits in the
+ * budget, and with fewer iterations, a power of 2 down to MIN_ITERATION
+ * so that the frames share a few palettes, if even the lowest resolution
+ * does not fit.
+ * The frame chosen is only a preview of the fractal, which should be
+ * rendered in full once the interaction stops.
+ */
+public final class FrameBudget {
+
+    /**
+     * Factor by which each dimension of a frame is reduced, until
+     * MAX_REDUCTION
+     */
+    public static final int REDUCTION = 2;
+
+    /**
+     * Maximal factor by which each dimension of a frame is reduced
+     */
+    public static final int MAX_REDUCTION = 8;
+
+    /**
+     * Minimal number of iterations of a frame
+     */
+    public static final int MIN_ITERATION = 64;
+
+    // weight of the last frame in the average time
+    private static final double SMOOTHING = 0.5;
+
+    // the time given to a frame in nanoseconds
+    private final long budgetNanos;
+
+    // the average time per pixel and per iteration allowed, 0 until a
+    // frame is recorded
+    private double nanosPerIteration;
+
+    // instantiates a budget
+    private FrameBudget(long budgetMillis){
+	if(budgetMillis <= 0)
+	    throw new IllegalArgumentException("Invalid frame budget : "
+					       + budgetMillis);
+	this.budgetNanos = budgetMillis * 1_000_000L;
+    }
+
+    /**
+     * Returns a budget choosing frames rendered in about budgetMillis
+     * milliseconds
+     *
+     * @param budgetMillis The time given to a frame in milliseconds
+     * @return A new budget
+     * @throws IllegalArgumentException if the budget is not positive
+     */
+    public static FrameBudget of(long budgetMillis){
+	return new FrameBudget(budgetMillis);
+    }
+
+    /**
+     * Records the time taken to compute the specified pixels of a frame.
+     * The pixels copied from indices already computed are not counted,
+     * and a frame without any pixel computed is ignored
+     *
+     * @param frame The fractal of the frame
+     * @param pixels The number of pixels computed
+     * @param nanos The time taken in nanoseconds
+     */
+    public synchronized void record(Fractal frame, long pixels, long nanos){
+	if(pixels <= 0)
+	    return;
+	double t = (double)nanos / pixels / frame.getMaxIteration();
+	nanosPerIteration = nanosPerIteration == 0 ? t
+	    : SMOOTHING * t + (1 - SMOOTHING) * nanosPerIteration;
+    }
+
+    /**
+     * Returns the fractal of the frame showing the specified one in the
+     * budget, the fractal itself if it fits. Until a frame is recorded,
+     * the frame has the lowest resolution and all the iterations.
+     * The window of the frame starts at the same point, with the step
+     * multiplied by the reduction
+     *
+     * @param fractal The fractal to show
+     * @return The fractal of the frame
+     */
+    public Fractal frameOf(Fractal fractal){
+	double t;
+	synchronized(this){
+	    t = nanosPerIteration;
+	}
+	int maxIteration = fractal.getMaxIteration();
+	int reduction = t == 0 ? MAX_REDUCTION : 1;
+	while(reduction < MAX_REDUCTION
+	      && pixels(fractal, reduction) * maxIteration * t > budgetNanos)
+	    reduction *= REDUCTION;
+	if(reduction == 1)
+	    return fractal;
+	Fractal frame = fractal.withWindow(fractal.getXMin(),
+					   fractal.getYMax(),
+					   fractal.getDiscreteStep() * reduction,
+					   (fractal.getWidth() - 1) / reduction
+					   + 1,
+					   (fractal.getHeight() - 1) / reduction
+					   + 1);
+	// fewer iterations if the lowest resolution does not fit, rounded
+	// down to a power of 2
+	int iterations = maxIteration;
+	if(t != 0){
+	    double fitting = budgetNanos / (pixels(fractal, reduction) * t);
+	    iterations = Integer.highestOneBit((int)Math.min(Integer.MAX_VALUE,
+							     Math.max(MIN_ITERATION,
+								      fitting)));
+	}
+	return iterations < maxIteration ? frame.withMaxIteration(iterations)
+	    : frame;
+    }
+
+    // returns the number of pixels of the fractal reduced by the factor
+    private static double pixels(Fractal fractal, int reduction){
+	return ((fractal.getWidth() - 1) / reduction + 1.0)
+	    * ((fractal.getHeight() - 1) / reduction + 1.0);
+    }
+}
@@ -0,0 +1,136 @@
+package fractales.utils;
+
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+
+/**
+ * This class gives the complex number of each pixel of the image of a
+ * fractal, the point xMin + step * i + (yMax - step * j) i of the window
+ * the fractal declares.
+ * The Mandelbrot set is symmetric about the real axis, and a Julia set
+ * whose iteration function has no z term is symmetric about the origin
+ * as f(-z) = f(z). When the axis lies on a row of the grid or halfway
+ * between two rows, up to ZoomPlan.ALIGNMENT_TOLERANCE, each row below it
+ * takes the exact opposite of the imaginary part of its symmetric row,
+ * and likewise for the columns of a Julia set on either side of the
+ * origin. A pixel then has the same divergence index whether it is
+ * computed or copied from its symmetric pixel, so every rendering path
+ * gives the same indices whether it mirrors or not.
+ * This class is immutable.
+ */
+final class Grid {
+
+    // the upper left point of the window, and the distance between pixels
+    private final double xMin;
+    private final double yMax;
+    private final double step;
+
+    // twice the row of the real axis, -1 if the fractal is not symmetric
+    // about it or if it does not lie on the grid
+    private final long rowAxis;
+
+    // twice the column of the imaginary axis, -1 if the fractal is not
+    // symmetric about the origin or if it does not lie on the grid
+    private final long columnAxis;
+
+    // instantiates the grid of a fractal
+    private Grid(Fractal fractal){
+	this.xMin = fractal.getXMin();
+	this.yMax = fractal.getYMax();
+	this.step = fractal.getDiscreteStep();
+	if(!isSymmetric(fractal)){
+	    this.rowAxis = -1;
+	    this.columnAxis = -1;
+	    return;
+	}
+	this.rowAxis = axis(yMax, step);
+	this.columnAxis = fractal.getFractalType() == FractalType.JULIA
+	    ? axis(-xMin, step) : -1;
+    }
+
+    /**
+     * Returns the grid of the pixels of the specified fractal
+     *
+     * @param fractal A fractal
+     * @return The grid of the fractal
+     */
+    static Grid of(Fractal fractal){
+	return new Grid(fractal);
+    }
+
+    // returns true if the fractal is symmetric about an axis
+    private static boolean isSymmetric(Fractal fractal){
+	if(fractal.getFractalType() == FractalType.MANDELBROT)
+	    return true;
+	// the iteration function has no z term
+	Julia julia = (Julia)fractal;
+	return julia.getBetaFactor().getRe() == 0.0
+	    && julia.getBetaFactor().getIm() == 0.0;
+    }
+
+    // returns the number of half steps from the first row or column to
+    // the axis at the given distance, -1 if it is not on the grid
+    private static long axis(double distance, double step){
+	double halfSteps = 2 * distance / step;
+	long axis = Math.round(halfSteps);
+	if(axis < 0
+	   || Math.abs(halfSteps - axis) > 2 * ZoomPlan.ALIGNMENT_TOLERANCE)
+	    return -1;
+	return axis;
+    }
+
+    /**
+     * Returns twice the row of the real axis, the row j being the
+     * symmetric of the row getRowAxis() - j
+     *
+     * @return Twice the row of the axis, or -1 if the rows have no
+     * symmetric
+     */
+    long getRowAxis(){
+	return rowAxis;
+    }
+
+    /**
+     * Returns twice the column of the imaginary axis, the column i being
+     * the symmetric of the column getColumnAxis() - i
+     *
+     * @return Twice the column of the axis, or -1 if the columns have no
+     * symmetric
+     */
+    long getColumnAxis(){
+	return columnAxis;
+    }
+
+    /**
+     * Returns the real part of the pixels of column i
+     *
+     * @param i The column
+     * @return The real part of the column
+     */
+    double re(int i){
+	return coordinate(xMin, step, columnAxis, i);
+    }
+
+    /**
+     * Returns the imaginary part of the pixels of row j
+     *
+     * @param j The row
+     * @return The imaginary part of the row
+     */
+    double im(int j){
+	return -coordinate(-yMax, step, rowAxis, j);
+    }
+
+    // returns origin + step * k, or the exact opposite of the coordinate
+    // of its symmetric k' = axis - k if 0 <= k' < k, or 0 on the axis
+    private static double coordinate(double origin, double step, long axis,
+				     int k){
+	if(axis >= 0 && 2L * k >= axis && k <= axis){
+	    long symmetric = axis - k;
+	    if(symmetric == k)
+		return 0.0;
+	    return -(origin + (step * symmetric));
+	}
+	return origin + (step * k);
+    }
+}
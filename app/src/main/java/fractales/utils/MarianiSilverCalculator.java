@@ -0,0 +1,123 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+
+/**
+ * This class is used to compute the divergence index matrix with the
+ * Mariani-Silver algorithm.
+ * The border of a rectangle of pixels is computed first : if every pixel
+ * of the border has the same divergence index, the whole rectangle is
+ * filled with it. Otherwise the rectangle is split in four along its
+ * middle row and column, which are computed and become the borders of
+ * the four parts, computed in parallel.
+ * The filled rectangles are assumed to be uniform, which is not always
+ * true for thin filaments crossing them.
+ */
+public class MarianiSilverCalculator extends RecursiveAction {
+
+    /**
+     * Side in pixels under which a rectangle is computed pixel by pixel
+     */
+    public static final int MIN_SIDE = 6;
+
+    int left, top, right, bottom; // boundaries, included
+    boolean bordersComputed; // true if the border is already in results
+    RenderTarget results; // receives the divergence indices
+    Fractal fractal; // the fractal being built
+
+    /**
+     * Instantiates a Calculator for the rectangle of pixels whose border
+     * is not computed yet
+     *
+     * @param left The first column
+     * @param top The first row
+     * @param right The last column (included)
+     * @param bottom The last row (included)
+     * @param results The target of the divergence indices, which must
+     * keep them in a buffer
+     * @param fractal The fractal being built
+     */
+    public MarianiSilverCalculator(int left, int top, int right, int bottom,
+				   RenderTarget results, Fractal fractal){
+	this(left, top, right, bottom, false, results, fractal);
+    }
+
+    // instantiates a Calculator for a part of a rectangle
+    private MarianiSilverCalculator(int left, int top, int right,
+				    int bottom, boolean bordersComputed,
+				    RenderTarget results, Fractal fractal){
+	this.left = left;
+	this.top = top;
+	this.right = right;
+	this.bottom = bottom;
+	this.bordersComputed = bordersComputed;
+	this.results = results;
+	this.fractal = fractal;
+    }
+
+    @Override
+    protected void compute(){
+	if(right < left || bottom < top || results.isCancelled())
+	    return;
+	if(right - left < MIN_SIDE || bottom - top < MIN_SIDE){
+	    if(bordersComputed)
+		computePixels(left + 1, top + 1, right - 1, bottom - 1);
+	    else
+		computePixels(left, top, right, bottom);
+	    results.tileRendered(left, top, right + 1, bottom + 1);
+	    return;
+	}
+	if(!bordersComputed){
+	    computePixels(left, top, right, top);
+	    computePixels(left, bottom, right, bottom);
+	    computePixels(left, top + 1, left, bottom - 1);
+	    computePixels(right, top + 1, right, bottom - 1);
+	}
+	int index = results.get(left, top);
+	if(isBorderUniform(index)){
+	    results.fill(left + 1, top + 1, right, bottom, index);
+	    results.tileRendered(left, top, right + 1, bottom + 1);
+	    return;
+	}
+	int middleX = (left + right) / 2;
+	int middleY = (top + bottom) / 2;
+	computePixels(middleX, top + 1, middleX, bottom - 1);
+	computePixels(left + 1, middleY, right - 1, middleY);
+	invokeAll(split(left, top, middleX, middleY),
+		  split(middleX, top, right, middleY),
+		  split(left, middleY, middleX, bottom),
+		  split(middleX, middleY, right, bottom));
+    }
+
+    // a calculator for a part of this rectangle, whose border is computed
+    private MarianiSilverCalculator split(int left, int top, int right,
+					  int bottom){
+	return new MarianiSilverCalculator(left, top, right, bottom, true,
+					   results, fractal);
+    }
+
+    // returns true if every pixel of the border has the given index
+    private boolean isBorderUniform(int index){
+	for(int i = left; i <= right; i++){
+	    if(results.get(i, top) != index || results.get(i, bottom) != index)
+		return false;
+	}
+	for(int j = top + 1; j < bottom; j++){
+	    if(results.get(left, j) != index || results.get(right, j) != index)
+		return false;
+	}
+	return true;
+    }
+
+    // computes divergence indices of the pixels of the given rectangle
+    private void computePixels(int left, int top, int right, int bottom){
+	Grid grid = Grid.of(fractal);
+	for(int j = top; j <= bottom; j++){
+	    double im = grid.im(j);
+	    for(int i = left; i <= right; i++){
+		results.set(i, j, fractal.computeDivergence(grid.re(i), im));
+	    }
+	}
+    }
+}
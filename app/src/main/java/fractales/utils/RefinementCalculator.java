@@ -0,0 +1,127 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+
+/**
+ * This class computes a pass of a progressive rendering.
+ * The pass of stride s computes the pixels of the grid of step s
+ * anchored at the upper left pixel of the rectangle, except the ones of
+ * the grid of step 2s computed by the pass before, and fills each
+ * s x s block with the divergence index of its upper left pixel as a
+ * preview. The passes of stride FIRST_STRIDE down to 1 thus compute every
+ * pixel once. The rows are split in two halves, on multiples of
+ * FIRST_STRIDE, like DivergenceIndexMatrixCalculator splits tiles.
+ */
+public class RefinementCalculator extends RecursiveAction {
+
+    /**
+     * Stride of the first pass, whose blocks are FIRST_STRIDE pixels wide
+     */
+    public static final int FIRST_STRIDE = 4;
+
+    int x0, y0, x1, y1; // boundaries, x1 and y1 excluded
+    int top; // the row of the rectangle at the origin of the grid
+    int stride; // the step of the grid of this pass
+    int bandHeight; // number of rows computed at once
+    RenderTarget results; // receives the divergence indices
+    Fractal fractal; // the fractal being built
+
+    /**
+     * Instantiates a Calculator for the pass of the specified stride
+     * over [x0, x1) x [y0, y1)
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     * @param stride The stride of the pass, FIRST_STRIDE or one of its
+     * divisors
+     * @param bandHeight The number of rows computed at once
+     * @param results The target of the divergence indices
+     * @param fractal The fractal being built
+     */
+    public RefinementCalculator(int x0, int y0, int x1, int y1, int stride,
+				int bandHeight, RenderTarget results,
+				Fractal fractal){
+	this(x0, y0, x1, y1, y0, stride, bandHeight, results, fractal);
+    }
+
+    // instantiates a Calculator for a band of the rectangle of first row
+    // top
+    private RefinementCalculator(int x0, int y0, int x1, int y1, int top,
+				 int stride, int bandHeight,
+				 RenderTarget results, Fractal fractal){
+	this.x0 = x0;
+	this.y0 = y0;
+	this.x1 = x1;
+	this.y1 = y1;
+	this.top = top;
+	this.stride = stride;
+	// a band is split in bands of at least FIRST_STRIDE rows
+	this.bandHeight = Math.max(bandHeight, 2 * FIRST_STRIDE);
+	this.results = results;
+	this.fractal = fractal;
+    }
+
+    @Override
+    protected void compute(){
+	int height = y1 - y0;
+	if(x1 <= x0 || height <= 0 || results.isCancelled())
+	    return;
+	if(height <= bandHeight
+	   || getSurplusQueuedTaskCount()
+	   > DivergenceIndexMatrixCalculator.SURPLUS_THRESHOLD){
+	    computeDirectly();
+	    return;
+	}
+	int middle = y0 + height / 2 / FIRST_STRIDE * FIRST_STRIDE;
+	invokeAll(split(y0, middle), split(middle, y1));
+    }
+
+    // a calculator for a band of this rectangle
+    private RefinementCalculator split(int y0, int y1){
+	return new RefinementCalculator(x0, y0, x1, y1, top, stride,
+					bandHeight, results, fractal);
+    }
+
+    // computes the bands of the rectangle one after the other, stopping
+    // once the rendering is cancelled
+    private void computeDirectly(){
+	// the bands keep the blocks of the first pass whole
+	int rows = bandHeight / FIRST_STRIDE * FIRST_STRIDE;
+	for(int by = y0; by < y1; by += rows){
+	    if(results.isCancelled())
+		return;
+	    computeBand(by, Math.min(by + rows, y1));
+	}
+    }
+
+    // computes the pixels of the grid in a band row by row
+    private void computeBand(int y0, int y1){
+	Grid grid = Grid.of(fractal);
+	int coarse = 2 * stride; // the step of the grid of the pass before
+	boolean simd = stride == 1 && DivergenceIndexMatrixCalculator
+	    .isVectorized() && VectorKernel.supports(fractal);
+	for(int j = y0 + Math.floorMod(top - y0, stride); j < y1; j += stride){
+	    // the rows of the coarser grid only miss every other pixel
+	    boolean computedRow = stride < FIRST_STRIDE
+		&& (j - top) % coarse == 0;
+	    int first = computedRow ? x0 + stride : x0;
+	    int next = computedRow ? coarse : stride;
+	    int i = first;
+	    if(simd && !computedRow)
+		i = VectorKernel.computeRow(fractal, grid, results, j, x0, x1);
+	    double im = grid.im(j);
+	    for(; i < x1; i += next){
+		int index = fractal.computeDivergence(grid.re(i), im);
+		if(stride == 1)
+		    results.set(i, j, index);
+		else
+		    results.fill(i, j, Math.min(i + stride, x1),
+				 Math.min(j + stride, y1), index);
+	    }
+	}
+	results.tileRendered(x0, y0, x1, y1);
+    }
+}
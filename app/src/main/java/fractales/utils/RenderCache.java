@@ -0,0 +1,352 @@
+package fractales.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import fractales.model.DivergenceBuffer;
+import fractales.model.Fractal;
+
+/**
+ * This class caches the divergence indices of the fractals rendered, so
+ * that a fractal rendered again, or only recolored, is not computed.
+ * The indices are looked up by the RenderKey of the fractal in two tiers :
+ * the least recently used indices are evicted from memory once they
+ * exceed a number of bytes, and the indices are also saved as .frac files
+ * named after the digest of the key in a directory, where the least
+ * recently used files are deleted once they exceed a number of bytes.
+ * The files are written one after the other by a background thread, so
+ * that caching the indices does not delay the rendering.
+ * The cached buffers are shared and must not be modified.
+ */
+public final class RenderCache {
+
+    /**
+     * Default directory of the disk tier
+     */
+    public static final String DEFAULT_DIRECTORY = "/tmp/fractales-cache";
+
+    /**
+     * Default size in bytes of the disk tier
+     */
+    public static final long DEFAULT_DISK_BYTES = 512L << 20;
+
+    // extension of the files of the disk tier
+    private static final String EXTENSION = ".frac";
+
+    // the indices in memory, least recently used first
+    private final LinkedHashMap<RenderKey, DivergenceBuffer> memory;
+
+    // the bytes held in memory and their bound
+    private long memoryBytes;
+    private final long maxMemoryBytes;
+
+    // the directory of the disk tier, null if there is none
+    private final File directory;
+
+    // the bound of the bytes held on disk
+    private final long maxDiskBytes;
+
+    // the lock of the files of the disk tier
+    private final Object diskLock = new Object();
+
+    // writes the files of the disk tier, null if there is none
+    private final ExecutorService writer;
+
+    // the indices waiting to be written on disk, by key
+    private final Map<RenderKey, DivergenceBuffer> pending =
+	new ConcurrentHashMap<>();
+
+    // counters of the lookups
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // instantiates a cache
+    private RenderCache(long maxMemoryBytes, File directory,
+			long maxDiskBytes){
+	if(maxMemoryBytes < 0 || maxDiskBytes < 0)
+	    throw new IllegalArgumentException("Invalid cache size");
+	this.memory = new LinkedHashMap<>(16, 0.75f, true);
+	this.maxMemoryBytes = maxMemoryBytes;
+	this.directory = directory;
+	this.maxDiskBytes = maxDiskBytes;
+	this.writer = directory == null || maxDiskBytes == 0 ? null
+	    : Executors.newSingleThreadExecutor(r -> {
+		    Thread t = new Thread(r, "render-cache-writer");
+		    t.setDaemon(true);
+		    return t;
+		});
+    }
+
+    /**
+     * Returns a cache holding at most maxMemoryBytes of indices in memory,
+     * and at most maxDiskBytes of files in the specified directory,
+     * created if needed
+     *
+     * @param maxMemoryBytes The bound of the memory tier in bytes
+     * @param directory The directory of the disk tier, or null for none
+     * @param maxDiskBytes The bound of the disk tier in bytes
+     * @return A new cache
+     * @throws IllegalArgumentException if a bound is negative
+     */
+    public static RenderCache of(long maxMemoryBytes, File directory,
+				 long maxDiskBytes){
+	return new RenderCache(maxMemoryBytes, directory, maxDiskBytes);
+    }
+
+    /**
+     * Returns a cache holding at most a quarter of the maximal heap size
+     * in memory, and DEFAULT_DISK_BYTES in DEFAULT_DIRECTORY
+     *
+     * @return A new cache
+     */
+    public static RenderCache of(){
+	return of(Runtime.getRuntime().maxMemory() / 4,
+		  new File(DEFAULT_DIRECTORY), DEFAULT_DISK_BYTES);
+    }
+
+    /**
+     * Returns the cached divergence indices of the specified fractal,
+     * from memory or else from disk
+     *
+     * @param fractal The fractal to look up
+     * @return The cached indices, which must not be modified, or null
+     */
+    public DivergenceBuffer get(Fractal fractal){
+	RenderKey key = RenderKey.of(fractal);
+	synchronized(this){
+	    DivergenceBuffer buffer = memory.get(key);
+	    if(buffer != null){
+		memoryHits.incrementAndGet();
+		return buffer;
+	    }
+	}
+	// the indices too large for memory are held until written
+	DivergenceBuffer buffer = pending.get(key);
+	if(buffer != null){
+	    memoryHits.incrementAndGet();
+	    return buffer;
+	}
+	buffer = readFromDisk(key);
+	if(buffer == null){
+	    misses.incrementAndGet();
+	    return null;
+	}
+	diskHits.incrementAndGet();
+	putInMemory(key, buffer);
+	return buffer;
+    }
+
+    /**
+     * Caches the divergence indices of the specified fractal in memory,
+     * and queues them to be written on disk by the background thread
+     *
+     * @param fractal The fractal whose indices are given
+     * @param buffer The divergence indices, which must not be modified
+     * afterwards
+     */
+    public void put(Fractal fractal, DivergenceBuffer buffer){
+	RenderKey key = RenderKey.of(fractal);
+	putInMemory(key, buffer);
+	if(writer == null)
+	    return;
+	pending.put(key, buffer);
+	writer.execute(() -> {
+		// skipped if replaced or cleared in the meantime
+		if(pending.get(key) != buffer)
+		    return;
+		try {
+		    writeToDisk(key, fractal, buffer);
+		} finally {
+		    pending.remove(key, buffer);
+		}
+	    });
+    }
+
+    /**
+     * Waits for the indices queued to be written on disk
+     */
+    public void flush(){
+	if(writer == null)
+	    return;
+	try {
+	    writer.submit(() -> {}).get();
+	} catch(InterruptedException e){
+	    Thread.currentThread().interrupt();
+	} catch(ExecutionException e){
+	    // the writes report their own errors
+	}
+    }
+
+    // returns the size in bytes of the indices
+    private static long sizeOf(DivergenceBuffer buffer){
+	return (long)buffer.getWidth() * buffer.getHeight()
+	    * buffer.getBytesPerIndex();
+    }
+
+    // keeps the indices in memory, evicting the least recently used
+    private synchronized void putInMemory(RenderKey key,
+					  DivergenceBuffer buffer){
+	long size = sizeOf(buffer);
+	if(size > maxMemoryBytes)
+	    return;
+	DivergenceBuffer old = memory.put(key, buffer);
+	if(old != null)
+	    memoryBytes -= sizeOf(old);
+	memoryBytes += size;
+	Iterator<Map.Entry<RenderKey, DivergenceBuffer>> it =
+	    memory.entrySet().iterator();
+	while(memoryBytes > maxMemoryBytes && it.hasNext()){
+	    Map.Entry<RenderKey, DivergenceBuffer> eldest = it.next();
+	    memoryBytes -= sizeOf(eldest.getValue());
+	    it.remove();
+	}
+    }
+
+    // returns the file of the indices of the key
+    private File fileOf(RenderKey key){
+	return new File(directory, key.digest() + EXTENSION);
+    }
+
+    // reads the indices of the key from disk, null if not found
+    private DivergenceBuffer readFromDisk(RenderKey key){
+	if(directory == null)
+	    return null;
+	synchronized(diskLock){
+	    File file = fileOf(key);
+	    if(!file.isFile())
+		return null;
+	    try {
+		FractalBinary fb = FractalBinary.read(file);
+		// the digests of different keys could be equal
+		if(!RenderKey.of(fb.getFractal()).equals(key))
+		    return null;
+		file.setLastModified(System.currentTimeMillis());
+		return fb.getDivergenceBuffer();
+	    } catch(IOException e){
+		file.delete();
+		return null;
+	    }
+	}
+    }
+
+    // writes the indices of the key on disk, evicting the least recently
+    // used files. The file is only locked once written, to be moved in
+    // place
+    private void writeToDisk(RenderKey key, Fractal fractal,
+			     DivergenceBuffer buffer){
+	try {
+	    Files.createDirectories(directory.toPath());
+	    Path tmp = Files.createTempFile(directory.toPath(), "render",
+					    ".tmp");
+	    try {
+		FractalBinary.of(fractal, buffer).write(tmp.toFile());
+		synchronized(diskLock){
+		    Files.move(tmp, fileOf(key).toPath(),
+			       StandardCopyOption.REPLACE_EXISTING,
+			       StandardCopyOption.ATOMIC_MOVE);
+		    evictFromDisk();
+		}
+	    } finally {
+		Files.deleteIfExists(tmp);
+	    }
+	} catch(IOException e){
+	    // the indices are still cached in memory
+	    e.printStackTrace();
+	}
+    }
+
+    // deletes the least recently used files beyond the bound
+    private void evictFromDisk(){
+	File[] files = directory.listFiles((d, name) ->
+					   name.endsWith(EXTENSION));
+	if(files == null)
+	    return;
+	long total = 0;
+	for(File f : files){
+	    total += f.length();
+	}
+	Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+	for(int i = 0; total > maxDiskBytes && i < files.length; i++){
+	    long length = files[i].length();
+	    if(files[i].delete())
+		total -= length;
+	}
+    }
+
+    /**
+     * Empties both tiers of the cache
+     */
+    public void clear(){
+	synchronized(this){
+	    memory.clear();
+	    memoryBytes = 0;
+	}
+	pending.clear();
+	if(directory == null)
+	    return;
+	synchronized(diskLock){
+	    File[] files = directory.listFiles((d, name) ->
+					       name.endsWith(EXTENSION));
+	    if(files != null){
+		for(File f : files){
+		    f.delete();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Returns the number of lookups found in memory
+     *
+     * @return The number of memory hits
+     */
+    public long getMemoryHits(){
+	return memoryHits.get();
+    }
+
+    /**
+     * Returns the number of lookups found on disk but not in memory
+     *
+     * @return The number of disk hits
+     */
+    public long getDiskHits(){
+	return diskHits.get();
+    }
+
+    /**
+     * Returns the number of lookups found in neither tier
+     *
+     * @return The number of misses
+     */
+    public long getMisses(){
+	return misses.get();
+    }
+
+    /**
+     * Returns the number of bytes of indices held in memory
+     *
+     * @return The size of the memory tier in bytes
+     */
+    public synchronized long getMemoryBytes(){
+	return memoryBytes;
+    }
+
+    @Override
+    public String toString(){
+	return getMemoryHits() + " memory hits, " + getDiskHits()
+	    + " disk hits, " + getMisses() + " misses";
+    }
+}
@@ -0,0 +1,719 @@
+package fractales.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import fractales.model.DivergenceBuffer;
+import fractales.model.Fractal;
+import fractales.model.Fractal.RenderStrategy;
+import fractales.model.MappedDivergenceBuffer;
+
+/**
+ * This class owns the pool of threads shared by every rendering of
+ * the process.
+ * The pool is created on first use with the parallelism degree given to
+ * setParallelism, the number of available processors by default, and
+ * lives until shutdown is called.
+ */
+public final class RenderEngine {
+
+    // the pool shared by every rendering, null until first use
+    private static ForkJoinPool pool;
+
+    // the parallelism degree of the pool
+    private static int parallelism =
+	Runtime.getRuntime().availableProcessors();
+
+    // side in pixels of the smallest square computed by a task
+    private static int tileSize = 64;
+
+    // true if the pixels symmetric of a computed pixel are copied
+    private static boolean mirroring = true;
+
+    // the divergence indices of the renderings kept, null if disabled
+    private static RenderCache cache = RenderCache.of();
+
+    private RenderEngine(){
+    }
+
+    /**
+     * Returns the pool shared by every rendering, creating it if needed
+     *
+     * @return The pool shared by every rendering
+     */
+    public static synchronized ForkJoinPool getPool(){
+	if(pool == null)
+	    pool = new ForkJoinPool(parallelism);
+	return pool;
+    }
+
+    /**
+     * Sets the number of threads used for the following renderings.
+     * The renderings already running on the previous pool are completed
+     * before its threads are released
+     *
+     * @param parallelism The number of threads, strictly positive
+     * @throws IllegalArgumentException if parallelism is not positive
+     */
+    public static synchronized void setParallelism(int parallelism){
+	if(parallelism <= 0)
+	    throw new IllegalArgumentException("Invalid number of threads : "
+					       + parallelism);
+	if(parallelism == RenderEngine.parallelism)
+	    return;
+	RenderEngine.parallelism = parallelism;
+	if(pool != null){
+	    pool.shutdown();
+	    pool = null;
+	}
+    }
+
+    /**
+     * Returns the number of threads used for the renderings
+     *
+     * @return The number of threads used for the renderings
+     */
+    public static synchronized int getParallelism(){
+	return parallelism;
+    }
+
+    /**
+     * Sets the side of the smallest square of pixels computed by a task
+     * for the following renderings. Small tiles balance the work better
+     * between the threads, large tiles cost less scheduling
+     *
+     * @param tileSize The side in pixels of a tile, strictly positive
+     * @throws IllegalArgumentException if tileSize is not positive
+     */
+    public static synchronized void setTileSize(int tileSize){
+	if(tileSize <= 0)
+	    throw new IllegalArgumentException("Invalid tile size : "
+					       + tileSize);
+	RenderEngine.tileSize = tileSize;
+    }
+
+    /**
+     * Returns the side of the smallest square of pixels computed by a task
+     *
+     * @return The side in pixels of a tile
+     */
+    public static synchronized int getTileSize(){
+	return tileSize;
+    }
+
+    /**
+     * Enables or disables the copy of the pixels that are the symmetric of
+     * a computed pixel for the following renderings. The pixels are only
+     * copied when the axis of symmetry lies on the grid of the fractal,
+     * and the indices are the same whether they are copied or not
+     *
+     * @param mirroring true to copy the symmetric pixels, the default
+     */
+    public static synchronized void setMirroring(boolean mirroring){
+	RenderEngine.mirroring = mirroring;
+    }
+
+    /**
+     * Returns true if the pixels symmetric of a computed pixel are copied
+     *
+     * @return true if the mirroring is enabled
+     */
+    public static synchronized boolean isMirroring(){
+	return mirroring;
+    }
+
+    /**
+     * Sets the cache of the divergence indices of the following
+     * renderings
+     *
+     * @param cache The cache, or null to compute every rendering
+     */
+    public static synchronized void setCache(RenderCache cache){
+	RenderEngine.cache = cache;
+    }
+
+    /**
+     * Returns the cache of the divergence indices of the renderings
+     *
+     * @return The cache, or null if disabled
+     */
+    public static synchronized RenderCache getCache(){
+	return cache;
+    }
+
+    /**
+     * Computes the divergence indices of the specified fractal on the
+     * shared pool. The cached indices are reused if the fractal only
+     * differs from a cached one by its color factors. The returned
+     * buffer is shared and must not be modified
+     *
+     * @param fractal The fractal to compute
+     * @return A buffer containing the divergence index of the
+     * corresponding complex number
+     */
+    public static DivergenceBuffer computeDivergenceBuffer(Fractal fractal){
+	DivergenceBuffer buffer = getCachedBuffer(fractal);
+	if(buffer == null){
+	    buffer = computeDivergenceBuffer(fractal,
+					     fractal.getRenderStrategy());
+	    putCachedBuffer(fractal, buffer);
+	}
+	return buffer;
+    }
+
+    /**
+     * Computes the specified fractal on the shared pool and writes the
+     * color of each pixel into the given pixels, from the tasks that
+     * compute it. If the fractal only differs from a cached one by its
+     * color factors, its cached divergence indices are only colored again
+     *
+     * @param fractal The fractal to compute
+     * @param keepBuffer true to keep and return the divergence indices
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @return The shared buffer of divergence indices, which must not be
+     * modified, or null if keepBuffer is false
+     */
+    public static DivergenceBuffer render(Fractal fractal, boolean keepBuffer,
+					  int[] pixels, int scanline){
+	return render(fractal, keepBuffer, pixels, scanline, null);
+    }
+
+    /**
+     * Computes the specified fractal like render, reporting the tiles
+     * rendered to the specified listener from the render threads
+     *
+     * @param fractal The fractal to compute
+     * @param keepBuffer true to keep and return the divergence indices
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param listener The listener of the progress, or null
+     * @return The shared buffer of divergence indices, which must not be
+     * modified, or null if keepBuffer is false
+     * @throws CancellationException if the listener cancelled the
+     * rendering, whose pixels are then incomplete
+     */
+    public static DivergenceBuffer render(Fractal fractal, boolean keepBuffer,
+					  int[] pixels, int scanline,
+					  RenderListener listener){
+	return render(fractal, keepBuffer, true, pixels, scanline, listener);
+    }
+
+    /**
+     * Computes the specified fractal like render, without looking up its
+     * divergence indices in the cache nor storing them there. This is
+     * meant for transient images, such as previews, that would otherwise
+     * evict the images of the cache
+     *
+     * @param fractal The fractal to compute
+     * @param keepBuffer true to keep and return the divergence indices
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param listener The listener of the progress, or null
+     * @return The buffer of divergence indices, or null if keepBuffer is
+     * false
+     * @throws CancellationException if the listener cancelled the
+     * rendering, whose pixels are then incomplete
+     */
+    public static DivergenceBuffer renderUncached(Fractal fractal,
+						  boolean keepBuffer,
+						  int[] pixels, int scanline,
+						  RenderListener listener){
+	return render(fractal, keepBuffer, false, pixels, scanline, listener);
+    }
+
+    // computes the fractal like render, using the cache if cached is true
+    private static DivergenceBuffer render(Fractal fractal, boolean keepBuffer,
+					   boolean cached, int[] pixels,
+					   int scanline,
+					   RenderListener listener){
+	DivergenceBuffer buffer = cached ? getCachedBuffer(fractal) : null;
+	if(buffer != null){
+	    colorize(fractal, buffer, pixels, scanline);
+	    if(listener != null)
+		listener.tileCopied(0, 0, fractal.getWidth(),
+				    fractal.getHeight());
+	    return keepBuffer ? buffer : null;
+	}
+	RenderStrategy strategy = fractal.getRenderStrategy();
+	// Mariani-Silver reads back the indices of the borders
+	if(keepBuffer || strategy == RenderStrategy.MARIANI_SILVER)
+	    buffer = newBuffer(fractal);
+	RenderTarget target =
+	    RenderTarget.of(fractal, buffer, pixels, scanline, listener);
+	render(strategy, target);
+	if(target.isCancelled())
+	    throw new CancellationException("Rendering of "
+					    + fractal.getFileName()
+					    + " cancelled");
+	if(!keepBuffer)
+	    return null;
+	if(cached)
+	    putCachedBuffer(fractal, buffer);
+	return buffer;
+    }
+
+    /**
+     * Colors in parallel the pixels of the specified fractal from its
+     * divergence indices, already computed
+     *
+     * @param fractal The fractal whose colors are used
+     * @param buffer The divergence indices of the fractal
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     */
+    public static void colorize(Fractal fractal, DivergenceBuffer buffer,
+				int[] pixels, int scanline){
+	colorize(fractal, buffer, 0, 0, fractal.getWidth() - 1,
+		 fractal.getHeight() - 1, pixels, 0, scanline);
+    }
+
+    /**
+     * Colors in parallel the pixels [x0, x1) x [y0, y1) of the specified
+     * fractal from its divergence indices, already computed. The color
+     * of pixel (x, y) is written at position offset + y * scanline + x
+     *
+     * @param fractal The fractal whose colors are used
+     * @param buffer The divergence indices of the fractal
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     * @param pixels The RGB pixels of the image
+     * @param offset The position of pixel (0, 0), modulo 2^32
+     * @param scanline The distance between two vertically adjacent pixels
+     */
+    public static void colorize(Fractal fractal, DivergenceBuffer buffer,
+				int x0, int y0, int x1, int y1,
+				int[] pixels, int offset, int scanline){
+	getPool().invoke(new Colorizer(x0, y0, x1, y1, buffer,
+				       fractal.getPalette(), pixels, offset,
+				       scanline));
+    }
+
+    /**
+     * Starts coloring rows [y0, y1) of the specified fractal from its
+     * divergence indices, already computed, into the given pixels whose
+     * first row is row y0. The last row and column of the image are left
+     * black like in a full rendering
+     *
+     * @param fractal The fractal whose colors are used
+     * @param buffer The divergence indices of the fractal
+     * @param y0 The first row of the band
+     * @param y1 The last row of the band (exclusive)
+     * @param pixels The RGB pixels of the band, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @return The task coloring the band, to be joined
+     */
+    public static ForkJoinTask<Void> colorizeBand(Fractal fractal,
+						  DivergenceBuffer buffer,
+						  int y0, int y1, int[] pixels,
+						  int scanline){
+	int last = Math.min(y1, fractal.getHeight() - 1);
+	if(last < y1)
+	    Arrays.fill(pixels, (last - y0) * scanline,
+			(y1 - y0) * scanline, 0);
+	return getPool().submit(new Colorizer(0, y0, fractal.getWidth() - 1,
+					      last, buffer,
+					      fractal.getPalette(), pixels,
+					      -y0 * scanline, scanline));
+    }
+
+    /**
+     * Computes the divergence indices of the specified fractal on the
+     * shared pool into the given buffer, which may be larger than the heap
+     *
+     * @param fractal The fractal to compute
+     * @param buffer The buffer of the dimensions of the fractal image
+     * @throws IllegalArgumentException if the dimensions of the buffer
+     * are not the ones of the fractal image
+     */
+    public static void computeDivergenceBuffer(Fractal fractal,
+					       DivergenceBuffer buffer){
+	checkDimensions(fractal, buffer);
+	render(fractal.getRenderStrategy(),
+	       RenderTarget.of(fractal, buffer, null, 0));
+    }
+
+    /**
+     * Returns the divergence indices of the specified fractal stored in
+     * the given file. The file is reused if it holds the indices of the
+     * fractal, otherwise it is replaced and the indices are computed
+     * into it
+     *
+     * @param fractal The fractal to compute
+     * @param path The file of divergence indices
+     * @return The divergence indices mapped from the file, to be closed
+     * @throws IOException if the file cannot be written
+     */
+    public static MappedDivergenceBuffer mapDivergenceBuffer(Fractal fractal,
+							     Path path)
+	throws IOException {
+	String key = RenderKey.of(fractal).toString();
+	if(Files.exists(path)){
+	    try {
+		MappedDivergenceBuffer buffer =
+		    MappedDivergenceBuffer.open(path, true);
+		if(buffer.getKey().equals(key))
+		    return buffer;
+		buffer.close();
+	    } catch(IOException e){
+		// not a file of indices, replaced below
+	    }
+	}
+	MappedDivergenceBuffer buffer =
+	    MappedDivergenceBuffer.create(path, fractal.getWidth(),
+					  fractal.getHeight(),
+					  fractal.getMaxIteration(), key);
+	try {
+	    computeDivergenceBuffer(fractal, buffer);
+	    buffer.force();
+	} catch(RuntimeException e){
+	    buffer.close();
+	    throw e;
+	}
+	return buffer;
+    }
+
+    // checks that the buffer has the dimensions of the fractal image
+    static void checkDimensions(Fractal fractal, DivergenceBuffer buffer){
+	if(buffer.getWidth() != fractal.getWidth()
+	   || buffer.getHeight() != fractal.getHeight())
+	    throw new IllegalArgumentException("Buffer of "
+					       + buffer.getWidth() + "x"
+					       + buffer.getHeight()
+					       + " for an image of "
+					       + fractal.getWidth() + "x"
+					       + fractal.getHeight());
+    }
+
+    // returns the cached indices of the fractal, null if not cached
+    private static DivergenceBuffer getCachedBuffer(Fractal fractal){
+	RenderCache c = getCache();
+	return c == null ? null : c.get(fractal);
+    }
+
+    // caches the indices of the fractal
+    private static void putCachedBuffer(Fractal fractal,
+					DivergenceBuffer buffer){
+	RenderCache c = getCache();
+	if(c != null)
+	    c.put(fractal, buffer);
+    }
+
+    /**
+     * Computes the divergence index matrix of the specified fractal with
+     * both render strategies and returns the number of pixels whose
+     * divergence index differs
+     *
+     * @param fractal The fractal to compute
+     * @return The number of pixels computed differently by the
+     * Mariani-Silver strategy than by the brute force strategy
+     */
+    public static long countMarianiSilverErrors(Fractal fractal){
+	DivergenceBuffer expected =
+	    computeDivergenceBuffer(fractal, RenderStrategy.BRUTE_FORCE);
+	DivergenceBuffer actual =
+	    computeDivergenceBuffer(fractal, RenderStrategy.MARIANI_SILVER);
+	long errors = 0;
+	for(int j = 0; j < expected.getHeight(); j++){
+	    for(int i = 0; i < expected.getWidth(); i++){
+		if(expected.get(i, j) != actual.get(i, j))
+		    errors++;
+	    }
+	}
+	return errors;
+    }
+
+    // returns a new buffer for the divergence indices of the fractal
+    private static DivergenceBuffer newBuffer(Fractal fractal){
+	return DivergenceBuffer.of(fractal.getWidth(), fractal.getHeight(),
+				   fractal.getMaxIteration());
+    }
+
+    // computes the divergence indices with the given strategy
+    private static DivergenceBuffer computeDivergenceBuffer(Fractal fractal,
+						      RenderStrategy strategy){
+	DivergenceBuffer buffer = newBuffer(fractal);
+	render(strategy, RenderTarget.of(fractal, buffer, null, 0));
+	return buffer;
+    }
+
+    // computes the fractal of the target with the given strategy, copying
+    // the pixels that are the symmetric of a computed pixel
+    private static void render(RenderStrategy strategy, RenderTarget target){
+	Fractal fractal = target.getFractal();
+	SymmetryPlan plan = SymmetryPlan.of(fractal, fractal.getWidth() - 1,
+					    fractal.getHeight() - 1);
+	for(int[] region : plan.getComputedRegions()){
+	    computeRegion(strategy, target, fractal,
+			  region[0], region[1], region[2], region[3]);
+	}
+	if(target.isCancelled() || plan.getMirroredPixelCount() == 0)
+	    return;
+	getPool().invoke(plan.mirror(target));
+    }
+
+    // computes the divergence indices of [x0, x1) x [y0, y1) on the grid
+    // of the given fractal
+    private static void computeRegion(RenderStrategy strategy,
+				      RenderTarget target, Fractal fractal,
+				      int x0, int y0, int x1, int y1){
+	getPool().invoke(regionTask(strategy, target, fractal,
+				    x0, y0, x1, y1));
+    }
+
+    // returns the task computing the divergence indices of
+    // [x0, x1) x [y0, y1) on the grid of the given fractal
+    private static ForkJoinTask<Void> regionTask(RenderStrategy strategy,
+						 RenderTarget target,
+						 Fractal fractal,
+						 int x0, int y0,
+						 int x1, int y1){
+	if(strategy == RenderStrategy.MARIANI_SILVER)
+	    return new MarianiSilverCalculator(x0, y0, x1 - 1, y1 - 1,
+					       target, fractal);
+	return new DivergenceIndexMatrixCalculator(x0, y0, x1, y1,
+						   getTileSize(), target,
+						   fractal);
+    }
+
+    /**
+     * Computes the specified fractal in passes of decreasing stride, from
+     * RefinementCalculator.FIRST_STRIDE to 1, each pass computing the
+     * pixels of a grid twice as fine as the pass before and coloring the
+     * others with a preview. A rough image is thus reported to the
+     * listener after a sixteenth of the work, while every pixel is
+     * computed once. The divergence indices are kept, as the passes read
+     * them back to mirror the symmetric pixels. The passes compute every
+     * pixel, so a fractal of the Mariani-Silver strategy is rendered like
+     * render instead, in a single pass
+     *
+     * @param fractal The fractal to compute
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param listener The listener of the progress and of the passes, or
+     * null
+     * @return The shared buffer of divergence indices, which must not be
+     * modified
+     * @throws CancellationException if the listener cancelled the
+     * rendering, whose pixels are then incomplete
+     */
+    public static DivergenceBuffer renderProgressive(Fractal fractal,
+						     int[] pixels, int scanline,
+						     RenderListener listener){
+	if(fractal.getRenderStrategy() == RenderStrategy.MARIANI_SILVER){
+	    DivergenceBuffer buffer =
+		render(fractal, true, pixels, scanline, listener);
+	    if(listener != null)
+		listener.passRendered(1);
+	    return buffer;
+	}
+	DivergenceBuffer buffer = getCachedBuffer(fractal);
+	if(buffer != null){
+	    colorize(fractal, buffer, pixels, scanline);
+	    if(listener != null){
+		listener.tileCopied(0, 0, fractal.getWidth(),
+				    fractal.getHeight());
+		listener.passRendered(1);
+	    }
+	    return buffer;
+	}
+	buffer = newBuffer(fractal);
+	RenderTarget target =
+	    RenderTarget.of(fractal, buffer, pixels, scanline, listener);
+	int w = fractal.getWidth() - 1;
+	int h = fractal.getHeight() - 1;
+	SymmetryPlan plan = SymmetryPlan.of(fractal, w, h);
+	for(int stride = RefinementCalculator.FIRST_STRIDE; stride >= 1;
+	    stride /= 2){
+	    for(int[] region : plan.getComputedRegions()){
+		getPool().invoke(new RefinementCalculator(region[0], region[1],
+							  region[2], region[3],
+							  stride, getTileSize(),
+							  target,
+							  fractal));
+	    }
+	    if(target.isCancelled())
+		throw new CancellationException("Rendering of "
+						+ fractal.getFileName()
+						+ " cancelled");
+	    // the previews of the symmetric pixels are mirrored as well
+	    if(plan.getMirroredPixelCount() > 0)
+		getPool().invoke(plan.mirror(target));
+	    if(listener != null)
+		listener.passRendered(stride);
+	}
+	putCachedBuffer(fractal, buffer);
+	return buffer;
+    }
+
+    /**
+     * Computes the specified fractal, moved, zoomed in by 2 or zoomed out
+     * from the parent fractal whose divergence indices are given, copying
+     * the indices of the parent where the grids of the two fractals
+     * coincide. The pixels copied are colored first, and when zooming in
+     * each 2 x 2 block has the color of the parent pixel at its upper left
+     * as a preview, reported to the listener as a pass of stride 2. Only
+     * the pixels that are not pixels of the parent are then computed :
+     * three quarters of the pixels inside the parent when zooming in, and
+     * the strips outside the parent. A pixel of the parent is computed as
+     * well if its coordinates are not exactly the ones of the parent
+     * pixel, so that the indices cached are the ones of render. The
+     * fractal is computed like render if its grid is not aligned on the
+     * one of its parent
+     *
+     * @param fractal The fractal to compute
+     * @param parent The fractal whose indices are given
+     * @param parentBuffer The divergence indices of the parent, or null
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param listener The listener of the progress and of the passes, or
+     * null
+     * @return The shared buffer of divergence indices, which must not be
+     * modified
+     * @throws CancellationException if the listener cancelled the
+     * rendering, whose pixels are then incomplete
+     */
+    public static DivergenceBuffer renderZoom(Fractal fractal, Fractal parent,
+					      DivergenceBuffer parentBuffer,
+					      int[] pixels, int scanline,
+					      RenderListener listener){
+	return renderZoom(fractal, parent, parentBuffer, true, pixels,
+			  scanline, listener);
+    }
+
+    /**
+     * Computes the specified fractal like renderZoom, without looking up
+     * its divergence indices in the cache nor storing them there, such as
+     * the frames rendered while the view is moved. Every pixel of the
+     * parent is copied, so a pixel whose coordinates are an ulp away from
+     * the ones of its parent pixel may have another index than the one
+     * render computes
+     *
+     * @param fractal The fractal to compute
+     * @param parent The fractal whose indices are given
+     * @param parentBuffer The divergence indices of the parent, or null
+     * @param pixels The RGB pixels of the image, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param listener The listener of the progress and of the passes, or
+     * null
+     * @return The buffer of divergence indices
+     * @throws CancellationException if the listener cancelled the
+     * rendering, whose pixels are then incomplete
+     */
+    public static DivergenceBuffer renderZoomUncached(Fractal fractal,
+						      Fractal parent,
+						      DivergenceBuffer
+						      parentBuffer,
+						      int[] pixels,
+						      int scanline,
+						      RenderListener listener){
+	return renderZoom(fractal, parent, parentBuffer, false, pixels,
+			  scanline, listener);
+    }
+
+    // computes the zoomed fractal like renderZoom, using the cache if
+    // cached is true
+    private static DivergenceBuffer renderZoom(Fractal fractal,
+					       Fractal parent,
+					       DivergenceBuffer parentBuffer,
+					       boolean cached, int[] pixels,
+					       int scanline,
+					       RenderListener listener){
+	// the indices stored in the cache are the ones render computes
+	ZoomPlan plan = ZoomPlan.of(fractal, parent, parentBuffer, cached);
+	if(plan == null || cached && getCachedBuffer(fractal) != null)
+	    return render(fractal, true, cached, pixels, scanline, listener);
+	DivergenceBuffer buffer = newBuffer(fractal);
+	RenderTarget target =
+	    RenderTarget.of(fractal, buffer, pixels, scanline, listener);
+	int w = fractal.getWidth() - 1;
+	int h = fractal.getHeight() - 1;
+	int[] r = plan.getCoveredRegion();
+	getPool().invoke(plan.copy(target));
+	target.tileCopied(r[0], r[1], r[2], r[3]);
+	if(plan.getStride() > 1){
+	    if(listener != null)
+		listener.passRendered(plan.getStride());
+	    // the pixels of the rectangle that are not pixels of the parent
+	    getPool().invoke(new RefinementCalculator(r[0], r[1], r[2], r[3],
+						      1, getTileSize(),
+						      target, fractal));
+	}
+	// the strips outside the parent
+	RenderStrategy strategy = fractal.getRenderStrategy();
+	computeRegion(strategy, target, fractal, 0, 0, w, r[1]);
+	computeRegion(strategy, target, fractal, 0, r[1], r[0], r[3]);
+	computeRegion(strategy, target, fractal, r[2], r[1], w, r[3]);
+	computeRegion(strategy, target, fractal, 0, r[3], w, h);
+	if(target.isCancelled())
+	    throw new CancellationException("Rendering of "
+					    + fractal.getFileName()
+					    + " cancelled");
+	if(listener != null)
+	    listener.passRendered(1);
+	if(cached)
+	    putCachedBuffer(fractal, buffer);
+	return buffer;
+    }
+
+    /**
+     * Starts computing rows [y0, y1) of the specified fractal on the
+     * shared pool, writing their colors into the given pixels whose first
+     * row is row y0. The symmetric pixels are computed as well, as their
+     * symmetric may lie outside the band. The last row and column of the
+     * image are left black like in a full rendering
+     *
+     * @param fractal The fractal to compute
+     * @param y0 The first row of the band
+     * @param y1 The last row of the band (exclusive)
+     * @param pixels The RGB pixels of the band, row after row
+     * @param scanline The distance between two vertically adjacent pixels
+     * @return The task computing the band, to be joined
+     */
+    public static ForkJoinTask<Void> renderBand(Fractal fractal, int y0,
+						int y1, int[] pixels,
+						int scanline){
+	RenderStrategy strategy = fractal.getRenderStrategy();
+	int w = fractal.getWidth() - 1;
+	int last = Math.min(y1, fractal.getHeight() - 1);
+	if(last < y1)
+	    Arrays.fill(pixels, (last - y0) * scanline,
+			(y1 - y0) * scanline, 0);
+	if(last <= y0)
+	    return getPool().submit(ForkJoinTask.adapt(() -> {}, (Void)null));
+	// Mariani-Silver reads back the indices of the borders
+	DivergenceBuffer band = null;
+	if(strategy == RenderStrategy.MARIANI_SILVER)
+	    band = DivergenceBuffer.of(w, last - y0, fractal.getMaxIteration());
+	RenderTarget target =
+	    RenderTarget.of(fractal, band, pixels, scanline, y0);
+	return getPool().submit(regionTask(strategy, target, fractal,
+					   0, y0, w, last));
+    }
+
+    /**
+     * Waits for the running renderings to complete and for the cache to
+     * write their indices, and releases the threads of the pool. A new
+     * pool is created if a rendering is requested afterwards
+     */
+    public static synchronized void shutdown(){
+	if(pool != null){
+	    pool.shutdown();
+	    try {
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+	    } catch(InterruptedException e){
+		Thread.currentThread().interrupt();
+	    }
+	    pool = null;
+	}
+	if(cache != null)
+	    cache.flush();
+    }
+}
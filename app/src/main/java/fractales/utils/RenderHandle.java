@@ -0,0 +1,122 @@
+package fractales.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class controls a rendering running on the shared pool.
+ * The rendering can be cancelled, or given a deadline past which it is
+ * cancelled, and its tasks stop before their next tile once it is.
+ * A cancelled rendering neither returns nor caches its divergence
+ * indices, which are released with its tasks. The handle reports the
+ * progress of the rendering to the listener it wraps.
+ */
+public final class RenderHandle implements RenderListener {
+
+    // the listener of the progress, null if none
+    private final RenderListener listener;
+
+    // the value of System.nanoTime past which the rendering is cancelled
+    private final long deadline;
+
+    // true if there is a deadline
+    private final boolean timed;
+
+    // true once cancel is called
+    private volatile boolean cancelled;
+
+    // the task running the rendering, null until it is started
+    private volatile ForkJoinTask<?> task;
+
+    // instantiates a handle
+    private RenderHandle(RenderListener listener, long timeoutMillis){
+	this.listener = listener;
+	this.timed = timeoutMillis > 0;
+	this.deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+    }
+
+    /**
+     * Returns a handle forwarding the progress to the specified listener,
+     * and cancelling the rendering once timeoutMillis milliseconds have
+     * elapsed
+     *
+     * @param listener The listener of the progress, or null
+     * @param timeoutMillis The time given to the rendering in
+     * milliseconds, or 0 for no deadline
+     * @return A new handle
+     */
+    public static RenderHandle of(RenderListener listener,
+				  long timeoutMillis){
+	return new RenderHandle(listener, timeoutMillis);
+    }
+
+    // sets the task running the rendering
+    void start(ForkJoinTask<?> task){
+	this.task = task;
+	if(cancelled)
+	    task.cancel(false);
+    }
+
+    /**
+     * Cancels the rendering, whose tasks stop before their next tile
+     */
+    public void cancel(){
+	cancelled = true;
+	ForkJoinTask<?> t = task;
+	if(t != null)
+	    t.cancel(false);
+    }
+
+    /**
+     * Returns true if the deadline of the rendering is past
+     *
+     * @return true if the rendering ran out of time
+     */
+    public boolean isExpired(){
+	return timed && System.nanoTime() - deadline > 0;
+    }
+
+    @Override
+    public boolean isCancelled(){
+	return cancelled || isExpired()
+	    || (listener != null && listener.isCancelled());
+    }
+
+    /**
+     * Returns true if the rendering completed, failed or was cancelled
+     *
+     * @return true if the rendering is over
+     */
+    public boolean isDone(){
+	ForkJoinTask<?> t = task;
+	return t != null && t.isDone();
+    }
+
+    /**
+     * Waits for the end of the rendering
+     *
+     * @throws CancellationException if the rendering was cancelled or
+     * ran out of time
+     */
+    public void join(){
+	task.join();
+    }
+
+    @Override
+    public void tileRendered(int x0, int y0, int x1, int y1){
+	if(listener != null)
+	    listener.tileRendered(x0, y0, x1, y1);
+    }
+
+    @Override
+    public void tileCopied(int x0, int y0, int x1, int y1){
+	if(listener != null)
+	    listener.tileCopied(x0, y0, x1, y1);
+    }
+
+    @Override
+    public void passRendered(int stride){
+	if(listener != null)
+	    listener.passRendered(stride);
+    }
+}
@@ -0,0 +1,94 @@
+package fractales.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+
+/**
+ * This class identifies the divergence indices of a fractal : two
+ * fractals with equal keys have the same divergence indices, whatever
+ * their color factors and file names.
+ * The key is the canonical description of every parameter that affects
+ * the indices.
+ * This class is immutable.
+ */
+public final class RenderKey {
+
+    // the canonical description of the parameters
+    private final String canonical;
+
+    // instantiates the key of a fractal
+    private RenderKey(Fractal fractal){
+	StringBuilder sb = new StringBuilder();
+	sb.append(fractal.getFractalType());
+	if(fractal.getFractalType() == FractalType.JULIA){
+	    Julia julia = (Julia)fractal;
+	    sb.append(";constant=").append(julia.getComplexConstant());
+	    sb.append(";alpha=").append(julia.getAlphaFactor());
+	    sb.append(";beta=").append(julia.getBetaFactor());
+	} else {
+	    sb.append(";interior=")
+		.append(((Mandelbrot)fractal).isInteriorDetection());
+	}
+	sb.append(";maxIteration=").append(fractal.getMaxIteration());
+	sb.append(";step=").append(fractal.getDiscreteStep());
+	sb.append(";x=").append(fractal.getXMin())
+	    .append(' ').append(fractal.getXMax());
+	sb.append(";y=").append(fractal.getYMin())
+	    .append(' ').append(fractal.getYMax());
+	sb.append(";size=").append(fractal.getWidth())
+	    .append('x').append(fractal.getHeight());
+	sb.append(";strategy=").append(fractal.getRenderStrategy());
+	this.canonical = sb.toString();
+    }
+
+    /**
+     * Returns the key of the divergence indices of the specified fractal
+     *
+     * @param fractal A fractal
+     * @return The key of the divergence indices of the fractal
+     */
+    public static RenderKey of(Fractal fractal){
+	return new RenderKey(fractal);
+    }
+
+    /**
+     * Returns the SHA-256 hash of the canonical description of the
+     * parameters, in hexadecimal, usable as a file name
+     *
+     * @return The hash of the key, 64 hexadecimal digits
+     */
+    public String digest(){
+	try {
+	    byte[] hash = MessageDigest.getInstance("SHA-256")
+		.digest(canonical.getBytes(StandardCharsets.UTF_8));
+	    StringBuilder sb = new StringBuilder(2 * hash.length);
+	    for(byte b : hash){
+		sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+		    .append(Character.forDigit(b & 0xF, 16));
+	    }
+	    return sb.toString();
+	} catch(NoSuchAlgorithmException e){
+	    // every Java platform implements SHA-256
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    @Override
+    public boolean equals(Object o){
+	return o instanceof RenderKey
+	    && canonical.equals(((RenderKey)o).canonical);
+    }
+
+    @Override
+    public int hashCode(){
+	return canonical.hashCode();
+    }
+
+    @Override
+    public String toString(){
+	return canonical;
+    }
+}
@@ -0,0 +1,57 @@
+package fractales.utils;
+
+/**
+ * This interface follows the progress of a rendering.
+ * The render threads call tileRendered once the pixels of a tile are
+ * computed, or tileCopied once they are copied, and stop computing the
+ * remaining tiles once isCancelled returns true. A progressive rendering
+ * also reports each of its passes.
+ */
+public interface RenderListener {
+
+    /**
+     * Called from a render thread once the pixels of [x0, x1) x [y0, y1)
+     * are written. A pixel may be reported again by a later tile
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     */
+    void tileRendered(int x0, int y0, int x1, int y1);
+
+    /**
+     * Called from a render thread once the pixels of [x0, x1) x [y0, y1)
+     * are written from divergence indices already computed, those of a
+     * parent image, of the symmetric pixels or of the cache, instead of
+     * being computed. They are reported like tileRendered by default
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     */
+    default void tileCopied(int x0, int y0, int x1, int y1){
+	tileRendered(x0, y0, x1, y1);
+    }
+
+    /**
+     * Called from the rendering thread once a pass of a progressive
+     * rendering is complete, the pixels then holding a preview of the
+     * image where each stride x stride block has a single color. The
+     * last pass has a stride of 1
+     *
+     * @param stride The stride of the pass
+     */
+    default void passRendered(int stride){
+    }
+
+    /**
+     * Returns true if the rendering should stop before its next tile
+     *
+     * @return true to stop the rendering, false by default
+     */
+    default boolean isCancelled(){
+	return false;
+    }
+}
@@ -0,0 +1,227 @@
+package fractales.utils;
+
+import fractales.model.ColorPalette;
+import fractales.model.DivergenceBuffer;
+import fractales.model.Fractal;
+
+/**
+ * This class receives the divergence indices computed by the calculators.
+ * It stores them in a divergence buffer, writes their color straight into
+ * the pixels of an image, or both, so that the image is colored by the
+ * same tasks that compute it.
+ */
+public final class RenderTarget {
+
+    // the fractal being built
+    private final Fractal fractal;
+
+    // the buffer of divergence indices, null if not kept
+    private final DivergenceBuffer buffer;
+
+    // the RGB pixels of the image row after row, null if not colored
+    private final int[] pixels;
+
+    // distance between two vertically adjacent pixels of the image
+    private final int scanline;
+
+    // the row of the fractal held by the first row of buffer and pixels
+    private final int firstRow;
+
+    // the color of each divergence index
+    private final ColorPalette palette;
+
+    // the listener of the progress, null if none
+    private final RenderListener listener;
+
+    // instantiates a target
+    private RenderTarget(Fractal fractal, DivergenceBuffer buffer,
+			 int[] pixels, int scanline, int firstRow,
+			 RenderListener listener){
+	if(buffer == null && pixels == null)
+	    throw new IllegalArgumentException("Nothing to render into");
+	this.fractal = fractal;
+	this.buffer = buffer;
+	this.pixels = pixels;
+	this.scanline = scanline;
+	this.firstRow = firstRow;
+	this.listener = listener;
+	this.palette = fractal.getPalette();
+    }
+
+    /**
+     * Returns a target that stores the divergence indices in the
+     * specified buffer, and writes their color in the specified pixels
+     * if they are not null
+     *
+     * @param fractal The fractal being built
+     * @param buffer The buffer of divergence indices, or null
+     * @param pixels The RGB pixels of the image, row after row, or null
+     * @param scanline The distance between two vertically adjacent pixels
+     * @return A new target
+     * @throws IllegalArgumentException if both buffer and pixels are null
+     */
+    public static RenderTarget of(Fractal fractal, DivergenceBuffer buffer,
+				  int[] pixels, int scanline){
+	return new RenderTarget(fractal, buffer, pixels, scanline, 0, null);
+    }
+
+    /**
+     * Returns a target for a band of rows of the fractal, whose first row
+     * is the first row of the specified buffer and pixels
+     *
+     * @param fractal The fractal being built
+     * @param buffer The buffer of divergence indices of the band, or null
+     * @param pixels The RGB pixels of the band, row after row, or null
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param firstRow The first row of the band
+     * @return A new target
+     * @throws IllegalArgumentException if both buffer and pixels are null
+     */
+    public static RenderTarget of(Fractal fractal, DivergenceBuffer buffer,
+				  int[] pixels, int scanline, int firstRow){
+	return new RenderTarget(fractal, buffer, pixels, scanline, firstRow,
+				null);
+    }
+
+    /**
+     * Returns a target that reports its progress to the specified
+     * listener
+     *
+     * @param fractal The fractal being built
+     * @param buffer The buffer of divergence indices, or null
+     * @param pixels The RGB pixels of the image, row after row, or null
+     * @param scanline The distance between two vertically adjacent pixels
+     * @param listener The listener of the progress, or null
+     * @return A new target
+     * @throws IllegalArgumentException if both buffer and pixels are null
+     */
+    public static RenderTarget of(Fractal fractal, DivergenceBuffer buffer,
+				  int[] pixels, int scanline,
+				  RenderListener listener){
+	return new RenderTarget(fractal, buffer, pixels, scanline, 0,
+				listener);
+    }
+
+    /**
+     * Returns the fractal being built
+     *
+     * @return The fractal being built
+     */
+    public Fractal getFractal(){
+	return fractal;
+    }
+
+    /**
+     * Returns the buffer of divergence indices
+     *
+     * @return The buffer of divergence indices, or null if not kept
+     */
+    public DivergenceBuffer getBuffer(){
+	return buffer;
+    }
+
+    /**
+     * Reports that the pixels of [x0, x1) x [y0, y1) are written
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     */
+    public void tileRendered(int x0, int y0, int x1, int y1){
+	if(listener != null)
+	    listener.tileRendered(x0, y0, x1, y1);
+    }
+
+    /**
+     * Reports that the pixels of [x0, x1) x [y0, y1) are written from
+     * divergence indices already computed
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     */
+    public void tileCopied(int x0, int y0, int x1, int y1){
+	if(listener != null)
+	    listener.tileCopied(x0, y0, x1, y1);
+    }
+
+    /**
+     * Returns true if the rendering should stop before its next tile
+     *
+     * @return true if the listener cancelled the rendering
+     */
+    public boolean isCancelled(){
+	return listener != null && listener.isCancelled();
+    }
+
+    /**
+     * Stores the divergence index of pixel (x, y)
+     *
+     * @param x The column of the pixel
+     * @param y The row of the pixel
+     * @param index The divergence index of the pixel
+     */
+    public void set(int x, int y, int index){
+	y -= firstRow;
+	if(buffer != null)
+	    buffer.set(x, y, index);
+	if(pixels != null)
+	    pixels[y * scanline + x] = palette.getColor(index);
+    }
+
+    /**
+     * Returns the divergence index of pixel (x, y), only available if
+     * the indices are kept in a buffer
+     *
+     * @param x The column of the pixel
+     * @param y The row of the pixel
+     * @return The divergence index of the pixel
+     */
+    public int get(int x, int y){
+	return buffer.get(x, y - firstRow);
+    }
+
+    /**
+     * Stores the divergence index of every pixel of [x0, x1) x [y0, y1)
+     *
+     * @param x0 The first column
+     * @param y0 The first row
+     * @param x1 The last column (exclusive)
+     * @param y1 The last row (exclusive)
+     * @param index The divergence index of the pixels
+     */
+    public void fill(int x0, int y0, int x1, int y1, int index){
+	y0 -= firstRow;
+	y1 -= firstRow;
+	if(buffer != null)
+	    buffer.fill(x0, y0, x1, y1, index);
+	if(pixels != null){
+	    int rgb = palette.getColor(index);
+	    for(int y = y0; y < y1; y++){
+		int offset = y * scanline;
+		for(int x = x0; x < x1; x++){
+		    pixels[offset + x] = rgb;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Copies the divergence index of pixel (fromX, fromY) to pixel (x, y)
+     *
+     * @param fromX The column of the copied pixel
+     * @param fromY The row of the copied pixel
+     * @param x The column of the pixel
+     * @param y The row of the pixel
+     */
+    public void copy(int fromX, int fromY, int x, int y){
+	fromY -= firstRow;
+	y -= firstRow;
+	if(buffer != null)
+	    buffer.set(x, y, buffer.get(fromX, fromY));
+	if(pixels != null)
+	    pixels[y * scanline + x] = pixels[fromY * scanline + fromX];
+    }
+}
@@ -0,0 +1,187 @@
+package fractales.utils;
+
+import fractales.model.DivergenceBuffer;
+import fractales.model.Fractal;
+import fractales.model.Fractal.RenderStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class saves the image of a Fractal object too large to be held
+ * in memory.
+ * The image is computed in bands of rows on the shared pool, and each
+ * band is written to the PNG file as soon as the bands above it are
+ * written, so that only a few bands per thread are held in memory.
+ */
+public class StreamedImage {
+
+    /**
+     * Number of pixels of a band of rows, at least one row
+     */
+    public static final int BAND_PIXELS = 1 << 20;
+
+    /**
+     * Fraction of the maximal heap size above which an image should be
+     * streamed
+     */
+    public static final double HEAP_FRACTION = 0.5;
+
+    // The fractal to represent
+    private Fractal fractal;
+
+    // path to the file
+    private String path;
+
+    // the divergence indices of the fractal, null if computed
+    private DivergenceBuffer divergenceBuffer;
+
+    // instantiates a StreamedImage from a Fractal object
+    private StreamedImage(Fractal fractal, DivergenceBuffer buffer){
+	this.fractal = fractal;
+	this.divergenceBuffer = buffer;
+    }
+
+    /**
+     * Returns a new StreamedImage instance that saves the image of the
+     * specified Fractal fractal
+     *
+     * @param fractal The fractal to represent
+     * @return A new StreamedImage instance
+     */
+    public static StreamedImage of(Fractal fractal){
+	return new StreamedImage(fractal, null);
+    }
+
+    /**
+     * Returns a new StreamedImage instance that colors the specified
+     * divergence indices of the fractal, already computed, such as the
+     * ones of a MappedDivergenceBuffer
+     *
+     * @param fractal The fractal to represent
+     * @param divergenceBuffer The divergence indices of the fractal
+     * @return A new StreamedImage instance
+     * @throws IllegalArgumentException if the dimensions of the buffer
+     * are not the ones of the fractal image
+     */
+    public static StreamedImage of(Fractal fractal,
+				   DivergenceBuffer divergenceBuffer){
+	RenderEngine.checkDimensions(fractal, divergenceBuffer);
+	return new StreamedImage(fractal, divergenceBuffer);
+    }
+
+    /**
+     * Returns an estimate of the memory in bytes needed to hold the image
+     * of the specified fractal, along with its divergence indices if they
+     * are kept or needed by its render strategy
+     *
+     * @param fractal The fractal to represent
+     * @param keepDivergenceBuffer true if the divergence indices are kept
+     * @return The estimated memory in bytes
+     */
+    public static long estimateMemory(Fractal fractal,
+				      boolean keepDivergenceBuffer){
+	long pixels = (long)fractal.getWidth() * fractal.getHeight();
+	long bytes = pixels * Integer.BYTES;
+	if(keepDivergenceBuffer
+	   || fractal.getRenderStrategy() == RenderStrategy.MARIANI_SILVER)
+	    bytes += pixels
+		* DivergenceBuffer.bytesPerIndex(fractal.getMaxIteration());
+	return bytes;
+    }
+
+    /**
+     * Returns true if the image of the specified fractal does not fit in
+     * a single array, or would take more than HEAP_FRACTION of the
+     * maximal heap size
+     *
+     * @param fractal The fractal to represent
+     * @param keepDivergenceBuffer true if the divergence indices are kept
+     * @return true if the image should be streamed, false otherwise
+     */
+    public static boolean isNeeded(Fractal fractal,
+				   boolean keepDivergenceBuffer){
+	long pixels = (long)fractal.getWidth() * fractal.getHeight();
+	return pixels > Integer.MAX_VALUE - 8
+	    || estimateMemory(fractal, keepDivergenceBuffer)
+	    > HEAP_FRACTION * Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Computes the image band after band, or colors its divergence
+     * indices if they are given, and writes it to the specified
+     * PNG file. At most one band per thread of the pool, plus one, is
+     * held in memory
+     *
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeImage(File file) throws IOException {
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	int bandHeight = Math.max(1, Math.min(h, BAND_PIXELS / w));
+	int depth = RenderEngine.getParallelism() + 1;
+	ArrayDeque<ForkJoinTask<Void>> tasks = new ArrayDeque<>();
+	ArrayDeque<int[]> bands = new ArrayDeque<>(); // bands computed
+	ArrayDeque<int[]> free = new ArrayDeque<>(); // bands written
+	try(PngWriter png = PngWriter.of(file, w, h)){
+	    int next = 0; // first row of the next band to compute
+	    while(png.getRowsWritten() < h){
+		while(next < h && tasks.size() < depth){
+		    int[] pixels =
+			free.isEmpty() ? new int[bandHeight * w] : free.pop();
+		    int end = Math.min(next + bandHeight, h);
+		    tasks.add(divergenceBuffer == null
+			      ? RenderEngine.renderBand(fractal, next, end,
+							pixels, w)
+			      : RenderEngine.colorizeBand(fractal,
+							  divergenceBuffer,
+							  next, end, pixels,
+							  w));
+		    bands.add(pixels);
+		    next = end;
+		}
+		tasks.remove().join();
+		int[] pixels = bands.remove();
+		int rows = Math.min(bandHeight, h - png.getRowsWritten());
+		png.writeRows(pixels, 0, w, rows);
+		free.push(pixels);
+	    }
+	} finally {
+	    for(ForkJoinTask<Void> task : tasks){
+		task.cancel(false);
+	    }
+	}
+    }
+
+    /**
+     * Saves the image of the fractal in a .png file which name is the
+     * return value of the function getFileName() on the fractal, with
+     * .png concatenated, along with its descriptive text file
+     */
+    public void saveFile(){
+	FractalText ft = FractalText.of(fractal);
+	ft.saveFile();
+	File file =
+	    new File("/tmp/" + fractal.getFileName() + ".png");
+	path = file.getAbsolutePath();
+	try {
+	    writeImage(file);
+	} catch (Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PNG");
+	    System.exit(-1);
+	}
+    }
+
+    /**
+     * Returns the path to the image
+     *
+     * @return The path to the image
+     */
+    public String getPath(){
+	return path;
+    }
+}
@@ -0,0 +1,194 @@
+package fractales.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+
+/**
+ * This class finds the pixels of a fractal that are the symmetric of
+ * another pixel of the image, and can be copied from it instead of being
+ * computed.
+ * The pixels are only copied when the axes of symmetry lie on the grid
+ * of the image, as found by Grid, whose coordinates make a copied pixel
+ * equal to the computed one. Every pixel is computed if nothing can be
+ * copied, or if the mirroring is disabled with RenderEngine.setMirroring.
+ */
+final class SymmetryPlan {
+
+    // the area of the image covered, rows and columns excluded
+    private final int width;
+    private final int height;
+
+    // the row holding the symmetric of each row, -1 if none
+    private final int[] sourceRow;
+
+    // the column holding the symmetric of each column, -1 if none
+    private final int[] sourceColumn;
+
+    // instantiates a plan for the pixels of [0, width) x [0, height),
+    // copying the symmetric pixels only if mirrored is true
+    private SymmetryPlan(Fractal fractal, Grid grid, int width, int height,
+			 boolean mirrored){
+	this.width = width;
+	this.height = height;
+	this.sourceRow = new int[height];
+	this.sourceColumn = new int[width];
+	Arrays.fill(sourceRow, -1);
+	Arrays.fill(sourceColumn, -1);
+	if(!mirrored)
+	    return;
+	// (x, -y) is the symmetric of (x, y) for the Mandelbrot set, and
+	// (-x, -y) for a Julia set
+	findSourceRows(grid.getRowAxis());
+	if(fractal.getFractalType() == FractalType.MANDELBROT){
+	    for(int i = 0; i < width; i++){
+		sourceColumn[i] = i;
+	    }
+	} else {
+	    findSourceColumns(grid.getColumnAxis());
+	}
+    }
+
+    /**
+     * Returns the plan of the pixels of [0, width) x [0, height) that
+     * can be copied from their symmetric pixel
+     *
+     * @param fractal The fractal being built
+     * @param width The number of columns covered
+     * @param height The number of rows covered
+     * @return The symmetry plan of the fractal
+     */
+    static SymmetryPlan of(Fractal fractal, int width, int height){
+	Grid grid = Grid.of(fractal);
+	boolean mirrored = RenderEngine.isMirroring()
+	    && grid.getRowAxis() >= 0
+	    && (fractal.getFractalType() == FractalType.MANDELBROT
+		|| grid.getColumnAxis() >= 0);
+	return new SymmetryPlan(fractal, grid, width, height, mirrored);
+    }
+
+    // maps the rows below the real axis to the rows above it
+    private void findSourceRows(long axis){
+	// the row j is the symmetric of the row axis - j
+	for(int j = 0; j < height; j++){
+	    long source = axis - j;
+	    if(source >= 0 && source < j)
+		sourceRow[j] = (int)source;
+	}
+    }
+
+    // maps each column to the column of the opposite real part
+    private void findSourceColumns(long axis){
+	// the column i is the symmetric of the column axis - i
+	for(int i = 0; i < width; i++){
+	    long source = axis - i;
+	    if(source >= 0 && source < width)
+		sourceColumn[i] = (int)source;
+	}
+    }
+
+    /**
+     * Returns the rectangles of pixels that must be computed, as arrays
+     * {x0, y0, x1, y1} where x1 and y1 are excluded. Every pixel that is
+     * copied has its symmetric in one of these rectangles
+     *
+     * @return The rectangles of pixels to compute
+     */
+    List<int[]> getComputedRegions(){
+	List<int[]> regions = new ArrayList<>();
+	int j = 0;
+	while(j < height){
+	    boolean mirrored = sourceRow[j] >= 0;
+	    int end = j;
+	    while(end < height && (sourceRow[end] >= 0) == mirrored){
+		end++;
+	    }
+	    if(!mirrored){
+		regions.add(new int[] {0, j, width, end});
+	    } else {
+		// columns without symmetric in the mirrored rows
+		int i = 0;
+		while(i < width){
+		    int last = i;
+		    while(last < width && sourceColumn[last] < 0){
+			last++;
+		    }
+		    if(last > i)
+			regions.add(new int[] {i, j, last, end});
+		    i = last + 1;
+		}
+	    }
+	    j = end;
+	}
+	return regions;
+    }
+
+    /**
+     * Returns the number of pixels copied from their symmetric pixel
+     *
+     * @return The number of pixels that are not computed
+     */
+    long getMirroredPixelCount(){
+	long rows = Arrays.stream(sourceRow).filter(j -> j >= 0).count();
+	long columns = Arrays.stream(sourceColumn).filter(i -> i >= 0).count();
+	return rows * columns;
+    }
+
+    /**
+     * Returns the task copying the divergence index of each symmetric
+     * pixel in parallel, once the computed regions are filled. The rows
+     * copied are reported to the target
+     *
+     * @param results The target of the divergence indices
+     * @return The task copying the symmetric pixels
+     */
+    ForkJoinTask<Void> mirror(RenderTarget results){
+	// the rows mirrored follow each other
+	int first = 0;
+	while(first < height && sourceRow[first] < 0){
+	    first++;
+	}
+	int end = first;
+	while(end < height && sourceRow[end] >= 0){
+	    end++;
+	}
+	return new Mirror(first, end, results);
+    }
+
+    // This task copies the symmetric pixels of rows [y0, y1), split in
+    // halves like Colorizer splits its bands
+    private final class Mirror extends RecursiveAction {
+
+	private final int y0, y1;
+	private final RenderTarget results;
+
+	Mirror(int y0, int y1, RenderTarget results){
+	    this.y0 = y0;
+	    this.y1 = y1;
+	    this.results = results;
+	}
+
+	@Override
+	protected void compute(){
+	    if(y1 - y0 <= 1
+	       || (long)(y1 - y0) * width <= Colorizer.BAND_PIXELS){
+		for(int j = y0; j < y1; j++){
+		    for(int i = 0; i < width; i++){
+			if(sourceColumn[i] >= 0)
+			    results.copy(sourceColumn[i], sourceRow[j], i, j);
+		    }
+		}
+		if(y0 < y1)
+		    results.tileCopied(0, y0, width, y1);
+		return;
+	    }
+	    int middle = (y0 + y1) / 2;
+	    invokeAll(new Mirror(y0, middle, results),
+		      new Mirror(middle, y1, results));
+	}
+    }
+}
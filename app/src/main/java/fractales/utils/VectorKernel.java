@@ -0,0 +1,141 @@
+package fractales.utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+
+/**
+ * This class computes the divergence indices of a batch of pixels of a row
+ * at once, one pixel per lane of the SIMD registers of the processor.
+ * Lanes that have escaped are masked out until every lane of the batch
+ * has escaped or reached the maximal number of iterations.
+ * It gives the same indices as Fractal.computeDivergence(double, double)
+ * as the operations are done lane by lane in the same order.
+ * This class must only be loaded when the jdk.incubator.vector module
+ * is present.
+ */
+final class VectorKernel {
+
+    // widest vector shape supported by the processor
+    private static final VectorSpecies<Double> SPECIES =
+	DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernel(){
+    }
+
+    /**
+     * Returns true if this kernel gives the same indices as the scalar
+     * kernel of the specified fractal. The early detection of the points
+     * inside the Mandelbrot set is only done by the scalar kernel
+     *
+     * @param fractal The fractal being built
+     * @return true if this kernel can compute the fractal
+     */
+    static boolean supports(Fractal fractal){
+	return fractal.getFractalType() == FractalType.JULIA
+	    || !((Mandelbrot)fractal).isInteriorDetection();
+    }
+
+    /**
+     * Computes the divergence indices of the pixels of row j, from column
+     * from to column to (exclusive), by batches of the lane width.
+     * The remaining columns that do not fill a whole batch are left to the
+     * caller
+     *
+     * @param fractal The fractal being built
+     * @param grid The grid of the pixels of the fractal
+     * @param results The target of the divergence indices
+     * @param j The row of the pixels
+     * @param from The first column
+     * @param to The last column (exclusive)
+     * @return The first column that has not been computed
+     */
+    static int computeRow(Fractal fractal, Grid grid, RenderTarget results,
+			  int j, int from, int to){
+	int lanes = SPECIES.length();
+	double[] re = new double[lanes];
+	double[] counts = new double[lanes];
+	double im = grid.im(j);
+	int i = from;
+	for(; i + lanes <= to; i += lanes){
+	    for(int k = 0; k < lanes; k++){
+		re[k] = grid.re(i + k);
+	    }
+	    DoubleVector c = DoubleVector.fromArray(SPECIES, re, 0);
+	    DoubleVector count;
+	    if(fractal.getFractalType() == FractalType.JULIA){
+		count = juliaBatch((Julia)fractal, c, im);
+	    } else {
+		count = mandelbrotBatch(fractal, c, im);
+	    }
+	    count.intoArray(counts, 0);
+	    for(int k = 0; k < lanes; k++){
+		results.set(i + k, j, (int)counts[k]);
+	    }
+	}
+	return i;
+    }
+
+    // z(n+1) = z(n)*z(n) + c, with z(0) = 0
+    private static DoubleVector mandelbrotBatch(Fractal fractal,
+						DoubleVector cRe,
+						double cIm){
+	int maxIteration = fractal.getMaxIteration();
+	DoubleVector zRe = DoubleVector.zero(SPECIES);
+	DoubleVector zIm = DoubleVector.zero(SPECIES);
+	DoubleVector count = DoubleVector.zero(SPECIES);
+	VectorMask<Double> active = SPECIES.maskAll(true);
+	for(int iteration = 0; iteration < maxIteration - 1; iteration++){
+	    active = active.and(inRadius(zRe, zIm));
+	    if(!active.anyTrue())
+		break;
+	    DoubleVector nextRe = zRe.mul(zRe).sub(zIm.mul(zIm)).add(cRe);
+	    zIm = zRe.mul(zIm).add(zIm.mul(zRe)).add(cIm);
+	    zRe = nextRe;
+	    count = count.add(1.0, active);
+	}
+	return count;
+    }
+
+    // f(z) = alpha * z^2 + z * beta + complexConstant, with z(0) = c
+    private static DoubleVector juliaBatch(Julia julia, DoubleVector cRe,
+					   double cIm){
+	int maxIteration = julia.getMaxIteration();
+	double alphaRe = julia.getAlphaFactor().getRe();
+	double alphaIm = julia.getAlphaFactor().getIm();
+	double betaRe = julia.getBetaFactor().getRe();
+	double betaIm = julia.getBetaFactor().getIm();
+	double constantRe = julia.getComplexConstant().getRe();
+	double constantIm = julia.getComplexConstant().getIm();
+	DoubleVector zRe = cRe;
+	DoubleVector zIm = DoubleVector.broadcast(SPECIES, cIm);
+	DoubleVector count = DoubleVector.zero(SPECIES);
+	VectorMask<Double> active = SPECIES.maskAll(true);
+	for(int iteration = 0; iteration < maxIteration - 1; iteration++){
+	    active = active.and(inRadius(zRe, zIm));
+	    if(!active.anyTrue())
+		break;
+	    DoubleVector sqRe = zRe.mul(zRe).sub(zIm.mul(zIm));
+	    DoubleVector sqIm = zRe.mul(zIm).add(zIm.mul(zRe));
+	    DoubleVector nextRe = sqRe.mul(alphaRe).sub(sqIm.mul(alphaIm))
+		.add(zRe.mul(betaRe).sub(zIm.mul(betaIm)))
+		.add(constantRe);
+	    zIm = sqIm.mul(alphaRe).add(sqRe.mul(alphaIm))
+		.add(zRe.mul(betaIm).add(zIm.mul(betaRe)))
+		.add(constantIm);
+	    zRe = nextRe;
+	    count = count.add(1.0, active);
+	}
+	return count;
+    }
+
+    // lanes whose squared modulus is still within the bound
+    private static VectorMask<Double> inRadius(DoubleVector zRe,
+					       DoubleVector zIm){
+	return zRe.mul(zRe).add(zIm.mul(zIm))
+	    .compare(VectorOperators.LE, Fractal.SQUARED_RADIUS_BOUND);
+    }
+}
@@ -0,0 +1,250 @@
+package fractales.utils;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+
+/**
+ * This class finds the pixels of a fractal, moved, zoomed in by 2 or
+ * zoomed out from another one, that are pixels of the parent fractal and
+ * can be copied from its divergence indices instead of being computed.
+ * The grid of the fractal has a step equal to, half or a whole multiple
+ * of the one of its parent, and an origin on the grid of the parent, up
+ * to the rounding of the coordinates of the grids. When zooming in, every
+ * other pixel of every other row is a pixel of the parent, otherwise
+ * every pixel is. The divergence indices of the parent are the ones of
+ * the grid it declares, as given by Grid, whether its symmetric pixels
+ * were copied or not.
+ * A plan of exact copies only copies the pixels whose coordinates are
+ * the same in both grids, to the last bit, and computes the others, so
+ * that the indices are the ones render would compute. Otherwise a pixel
+ * an ulp away from its parent pixel may have another index.
+ * Those pixels lie in a rectangle of the image, the rest of the image
+ * lying outside the parent.
+ */
+final class ZoomPlan {
+
+    /**
+     * Largest distance, as a fraction of the discrete step, between two
+     * coordinates for them to be considered the same point of the grid
+     */
+    static final double ALIGNMENT_TOLERANCE = 1e-6;
+
+    // the fractal being built and its grid
+    private final Fractal fractal;
+    private final Grid grid;
+
+    // the divergence indices of the parent fractal
+    private final DivergenceBuffer parentBuffer;
+
+    // the pixel of the parent at the origin of the grid of the image,
+    // outside the parent if negative
+    private final int parentX;
+    private final int parentY;
+
+    // the distance between two pixels of the image that are pixels of
+    // the parent, and between those pixels in the parent
+    private final int stride;
+    private final int parentStride;
+
+    // the rectangle [x0, x1) x [y0, y1) of the pixels copied
+    private final int x0, y0, x1, y1;
+
+    // whether each column and row of the image has the coordinate of its
+    // parent column and row, all true unless the copies are exact
+    private final boolean[] sameColumn;
+    private final boolean[] sameRow;
+
+    // instantiates a plan
+    private ZoomPlan(Fractal fractal, Fractal parent,
+		     DivergenceBuffer parentBuffer, int parentX, int parentY,
+		     int stride, int parentStride, boolean exact){
+	this.fractal = fractal;
+	this.grid = Grid.of(fractal);
+	this.parentBuffer = parentBuffer;
+	this.parentX = parentX;
+	this.parentY = parentY;
+	this.stride = stride;
+	this.parentStride = parentStride;
+	// the last row and column of both images are not computed
+	int[] columns = covered(parentX, fractal.getWidth() - 1,
+				parent.getWidth() - 1);
+	int[] rows = covered(parentY, fractal.getHeight() - 1,
+			     parent.getHeight() - 1);
+	this.x0 = columns[0];
+	this.x1 = columns[1];
+	this.y0 = rows[0];
+	this.y1 = rows[1];
+	this.sameColumn = new boolean[fractal.getWidth()];
+	this.sameRow = new boolean[fractal.getHeight()];
+	Grid parentGrid = Grid.of(parent);
+	for(int i = x0; i < x1; i += stride){
+	    sameColumn[i] = !exact || grid.re(i)
+		== parentGrid.re(parentX + i / stride * parentStride);
+	}
+	for(int j = y0; j < y1; j += stride){
+	    sameRow[j] = !exact || grid.im(j)
+		== parentGrid.im(parentY + j / stride * parentStride);
+	}
+    }
+
+    /**
+     * Returns the plan of the pixels of the fractal that can be copied
+     * from the divergence indices of the parent fractal, or null if the
+     * fractal has another function than its parent, or a grid that is
+     * not aligned on the one of the parent
+     *
+     * @param fractal The fractal being built
+     * @param parent The fractal whose indices are given
+     * @param parentBuffer The divergence indices of the parent
+     * @param exact true to only copy the pixels whose coordinates are
+     * exactly the ones of their parent pixel
+     * @return The zoom plan of the fractal, or null
+     */
+    static ZoomPlan of(Fractal fractal, Fractal parent,
+		       DivergenceBuffer parentBuffer, boolean exact){
+	if(parentBuffer == null || !sameFunction(fractal, parent))
+	    return null;
+	double step = parent.getDiscreteStep();
+	double childStep = fractal.getDiscreteStep();
+	int stride;
+	int parentStride;
+	if(isAligned(step, 2 * childStep, step)){ // zoomed in
+	    stride = 2;
+	    parentStride = 1;
+	} else if(isAligned(step, childStep, step)){ // moved
+	    stride = 1;
+	    parentStride = 1;
+	} else { // zoomed out by a whole factor
+	    long factor = Math.round(childStep / step);
+	    if(factor < 2 || factor > Integer.MAX_VALUE
+	       || !isAligned(factor * step, childStep, step))
+		return null;
+	    stride = 1;
+	    parentStride = (int)factor;
+	}
+	double x = (fractal.getXMin() - parent.getXMin()) / step;
+	double y = (parent.getYMax() - fractal.getYMax()) / step;
+	int parentX = (int)Math.round(x);
+	int parentY = (int)Math.round(y);
+	if(!isAligned(parentX, x, 1.0) || !isAligned(parentY, y, 1.0))
+	    return null;
+	return new ZoomPlan(fractal, parent, parentBuffer, parentX, parentY,
+			    stride, parentStride, exact);
+    }
+
+    // returns the range [from, to) of the pixels of a row or column of
+    // length pixels whose parent pixel, starting at origin, is one of
+    // the parentLength pixels of the parent
+    private int[] covered(int origin, int length, int parentLength){
+	// the k-th pixel copied is the pixel stride * k of the image, and
+	// the pixel origin + parentStride * k of the parent
+	int first = Math.max(0, Math.floorDiv(-origin + parentStride - 1,
+					      parentStride));
+	int end = Math.min((length + stride - 1) / stride,
+			   Math.floorDiv(parentLength - origin + parentStride
+					 - 1, parentStride));
+	if(end <= first)
+	    return new int[] {0, 0};
+	return new int[] {stride * first, Math.min(length, stride * end)};
+    }
+
+    // returns true if both fractals compute the same divergence index
+    // at the same point
+    private static boolean sameFunction(Fractal a, Fractal b){
+	if(a.getFractalType() != b.getFractalType()
+	   || a.getMaxIteration() != b.getMaxIteration())
+	    return false;
+	if(a.getFractalType() == FractalType.MANDELBROT)
+	    return ((Mandelbrot)a).isInteriorDetection()
+		== ((Mandelbrot)b).isInteriorDetection();
+	Julia ja = (Julia)a;
+	Julia jb = (Julia)b;
+	return ja.getComplexConstant().equals(jb.getComplexConstant())
+	    && ja.getAlphaFactor().equals(jb.getAlphaFactor())
+	    && ja.getBetaFactor().equals(jb.getBetaFactor());
+    }
+
+    // returns true if the two coordinates are the same point of the grid
+    private static boolean isAligned(double a, double b, double step){
+	return Math.abs(a - b) <= ALIGNMENT_TOLERANCE * step;
+    }
+
+    /**
+     * Returns the rectangle of the pixels copied, as an array
+     * {x0, y0, x1, y1} where x1 and y1 are excluded, empty if the image
+     * lies outside the parent
+     *
+     * @return The rectangle covered by the parent
+     */
+    int[] getCoveredRegion(){
+	return new int[] {x0, y0, x1, y1};
+    }
+
+    /**
+     * Returns the distance between two pixels of a row of the image that
+     * are pixels of the parent, 2 if the image is zoomed in and 1
+     * otherwise
+     *
+     * @return The stride of the pixels copied
+     */
+    int getStride(){
+	return stride;
+    }
+
+    /**
+     * Returns the task copying in parallel the divergence index of each
+     * pixel of the covered rectangle that is a pixel of the parent, or
+     * computing it if its coordinates are not exactly the ones of its
+     * parent pixel, and filling the stride x stride block at its lower
+     * right as a preview of the pixels left to compute
+     *
+     * @param results The target of the divergence indices
+     * @return The task copying the pixels of the parent
+     */
+    ForkJoinTask<Void> copy(RenderTarget results){
+	return new Copy(y0, y1, results);
+    }
+
+    // This task copies the pixels of the parent in rows [y0, y1), split
+    // in halves on multiples of the stride like SymmetryPlan splits its
+    // rows
+    private final class Copy extends RecursiveAction {
+
+	private final int y0, y1;
+	private final RenderTarget results;
+
+	Copy(int y0, int y1, RenderTarget results){
+	    this.y0 = y0;
+	    this.y1 = y1;
+	    this.results = results;
+	}
+
+	@Override
+	protected void compute(){
+	    if(y1 - y0 <= stride
+	       || (long)(y1 - y0) * (x1 - x0) <= Colorizer.BAND_PIXELS){
+		for(int j = y0; j < y1; j += stride){
+		    copyRow(j);
+		}
+		return;
+	    }
+	    int middle = y0 + (y1 - y0) / 2 / stride * stride;
+	    invokeAll(new Copy(y0, middle, results),
+		      new Copy(middle, y1, results));
+	}
+
+	// copies or computes the pixels of the parent in row j
+	private void copyRow(int j){
+	    int py = parentY + j / stride * parentStride;
+	    int bottom = Math.min(j + stride, ZoomPlan.this.y1);
+	    for(int i = x0; i < x1; i += stride){
+		int index = sameRow[j] && sameColumn[i]
+		    ? parentBuffer.get(parentX + i / stride * parentStride, py)
+		    : fractal.computeDivergence(grid.re(i), grid.im(j));
+		results.fill(i, j, Math.min(i + stride, x1), bottom, index);
+	    }
+	}
+    }
+}
@@ -0,0 +1,66 @@
+package fractales.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the primitive kernels compute the divergence index of the
+ * Complex based ones, and that the interior detection does not change
+ * the indices
+ */
+class DivergenceTest {
+
+    // the points of the window [-2, 2] x [-2, 2] with a step of 0.01
+    private static final int POINTS = 401;
+
+    // returns the point of the window at column i or row j
+    private static double coordinate(int k){
+	return -2.0 + 0.01 * k;
+    }
+
+    // asserts that both versions of computeDivergence agree on every
+    // point of the window
+    private static void assertSameKernels(Fractal fractal){
+	for(int j = 0; j < POINTS; j++){
+	    double im = coordinate(j);
+	    for(int i = 0; i < POINTS; i++){
+		double re = coordinate(i);
+		assertEquals(fractal.computeDivergence(Complex.of(re, im)),
+			     fractal.computeDivergence(re, im),
+			     () -> re + " + " + im + "i");
+	    }
+	}
+    }
+
+    @Test
+    void mandelbrotKernelsAgree(){
+	assertSameKernels(new Mandelbrot.Builder().maxIteration(500).build());
+    }
+
+    @Test
+    void juliaKernelsAgree(){
+	assertSameKernels(new Julia.Builder().maxIteration(500).build());
+	assertSameKernels(new Julia.Builder().maxIteration(500)
+			  .complexConstant(Complex.of(-0.4, 0.6))
+			  .iterationFunction(Complex.of(0.9, 0.2),
+					     Complex.of(0.1, -0.3))
+			  .build());
+    }
+
+    @Test
+    void interiorDetectionKeepsTheIndices(){
+	Fractal plain = new Mandelbrot.Builder().maxIteration(1000).build();
+	Fractal detected = new Mandelbrot.Builder().maxIteration(1000)
+	    .interiorDetection(true).build();
+	for(int j = 0; j < POINTS; j++){
+	    double im = coordinate(j);
+	    for(int i = 0; i < POINTS; i++){
+		double re = coordinate(i);
+		assertEquals(plain.computeDivergence(re, im),
+			     detected.computeDivergence(re, im),
+			     () -> re + " + " + im + "i");
+	    }
+	}
+    }
+}
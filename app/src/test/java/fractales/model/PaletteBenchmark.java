@@ -0,0 +1,79 @@
+package fractales.model;
+
+import java.awt.Color;
+import fractales.utils.RenderEngine;
+
+/**
+ * This program measures the time taken to color the divergence indices of
+ * the default Mandelbrot window on a single thread, with Color.HSBtoRGB
+ * per pixel as before the palette, and with a ColorPalette lookup.
+ * Run with gradle benchmark -Pbench=fractales.model.PaletteBenchmark
+ */
+public class PaletteBenchmark {
+
+    // number of timed colorings of each kind, after as many to warm up
+    private static final int RUNS = 10;
+
+    public static void main(String[] args){
+	Mandelbrot fractal = new Mandelbrot.Builder()
+	    .discreteStep(0.0015)
+	    .build();
+	DivergenceBuffer buffer = RenderEngine.computeDivergenceBuffer(fractal);
+	RenderEngine.shutdown();
+	int[] pixels = new int[fractal.getWidth() * fractal.getHeight()];
+	double megapixels = pixels.length / 1e6;
+	System.out.printf("Mandelbrot %dx%d (%.1f megapixels)%n",
+			  fractal.getWidth(), fractal.getHeight(), megapixels);
+	for(int i = 0; i < RUNS; i++){
+	    colorPerPixel(fractal, buffer, pixels);
+	    colorFromPalette(fractal, buffer, pixels);
+	}
+	long hsb = Long.MAX_VALUE;
+	long palette = Long.MAX_VALUE;
+	for(int i = 0; i < RUNS; i++){
+	    long start = System.nanoTime();
+	    colorPerPixel(fractal, buffer, pixels);
+	    long middle = System.nanoTime();
+	    colorFromPalette(fractal, buffer, pixels);
+	    long end = System.nanoTime();
+	    hsb = Math.min(hsb, middle - start);
+	    palette = Math.min(palette, end - middle);
+	}
+	System.out.printf("Color.HSBtoRGB per pixel : %.2f ms per megapixel%n",
+			  hsb / 1e6 / megapixels);
+	System.out.printf("ColorPalette lookup : %.2f ms per megapixel%n",
+			  palette / 1e6 / megapixels);
+    }
+
+    // colors the indices as getColorFromDivergenceIndex did before the
+    // palette
+    private static void colorPerPixel(Fractal fractal,
+				      DivergenceBuffer buffer, int[] pixels){
+	int maxIteration = fractal.getMaxIteration();
+	float alpha = fractal.getAlphaColor();
+	float beta = fractal.getBetaColor();
+	float gamma = fractal.getGammaColor();
+	int w = buffer.getWidth();
+	for(int y = 0; y < buffer.getHeight(); y++){
+	    for(int x = 0; x < w; x++){
+		int index = buffer.get(x, y);
+		pixels[y * w + x] = index == maxIteration - 1 ? 0
+		    : Color.HSBtoRGB((float)index * alpha
+				     / (float)maxIteration, beta, gamma);
+	    }
+	}
+    }
+
+    // colors the indices from the palette of the fractal
+    private static void colorFromPalette(Fractal fractal,
+					 DivergenceBuffer buffer,
+					 int[] pixels){
+	ColorPalette palette = fractal.getPalette();
+	int w = buffer.getWidth();
+	for(int y = 0; y < buffer.getHeight(); y++){
+	    for(int x = 0; x < w; x++){
+		pixels[y * w + x] = palette.getColor(buffer.get(x, y));
+	    }
+	}
+    }
+}
@@ -0,0 +1,78 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import fractales.model.*;
+import fractales.model.Fractal.RenderStrategy;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a fractal saved in a .frac file is loaded back with its
+ * parameters and divergence indices
+ */
+class FractalBinaryTest {
+
+    // the directory of the saved files
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void disableCache(){
+	RenderEngine.setCache(null);
+    }
+
+    // saves and loads back the fractal, and asserts that nothing changed
+    private void assertRoundTrip(Fractal fractal) throws IOException {
+	DivergenceBuffer buffer = RenderEngine.computeDivergenceBuffer(fractal);
+	File file = dir.resolve(fractal.getFileName() + ".frac").toFile();
+	FractalBinary.of(fractal, buffer).write(file);
+	FractalBinary loaded = FractalBinary.read(file);
+	Fractal f = loaded.getFractal();
+	assertEquals(RenderKey.of(fractal), RenderKey.of(f));
+	assertEquals(fractal.getFileName(), f.getFileName());
+	assertEquals(fractal.getAlphaColor(), f.getAlphaColor());
+	assertEquals(fractal.getBetaColor(), f.getBetaColor());
+	assertEquals(fractal.getGammaColor(), f.getGammaColor());
+	DivergenceBuffer indices = loaded.getDivergenceBuffer();
+	assertEquals(buffer.getWidth(), indices.getWidth());
+	assertEquals(buffer.getHeight(), indices.getHeight());
+	for(int j = 0; j < buffer.getHeight(); j++){
+	    for(int i = 0; i < buffer.getWidth(); i++){
+		assertEquals(buffer.get(i, j), indices.get(i, j));
+	    }
+	}
+    }
+
+    @Test
+    void mandelbrotRoundTrips() throws IOException {
+	assertRoundTrip(new Mandelbrot.Builder().discreteStep(0.005)
+			.maxIteration(300).interiorDetection(true)
+			.colorFunction(0.3f, 0.7f, 0.2f)
+			.renderStrategy(RenderStrategy.MARIANI_SILVER)
+			.build());
+    }
+
+    @Test
+    void juliaRoundTrips() throws IOException {
+	// more than 255 iterations, so that indices take two bytes
+	assertRoundTrip(new Julia.Builder().discreteStep(0.005)
+			.maxIteration(1000)
+			.complexConstant(Complex.of(-0.4, 0.6))
+			.iterationFunction(Complex.of(0.9, 0.2),
+					   Complex.of(0.1, -0.3))
+			.build());
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+	File file = dir.resolve("other.frac").toFile();
+	Files.writeString(file.toPath(), "not a fractal");
+	assertThrows(IOException.class, () -> FractalBinary.read(file));
+    }
+}
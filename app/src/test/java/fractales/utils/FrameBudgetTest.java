@@ -0,0 +1,106 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fractales.model.Fractal;
+import fractales.model.Mandelbrot;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the frames chosen by FrameBudget from synthetic timings
+ */
+class FrameBudgetTest {
+
+    // the time given to a frame
+    private static final long BUDGET_MILLIS = 50;
+
+    // a fractal of 1361 x 1001 pixels and 1000 iterations
+    private static Fractal fractal(){
+	return new Mandelbrot.Builder().build()
+	    .withWindow(-2.0, 1.0, 0.002, 1361, 1001)
+	    .withMaxIteration(1000);
+    }
+
+    // records the time taken to compute every pixel of the fractal
+    private static void recordAll(FrameBudget budget, Fractal f, long nanos){
+	budget.record(f, (long)f.getWidth() * f.getHeight(), nanos);
+    }
+
+    @Test
+    void rejectsNonPositiveBudget(){
+	assertThrows(IllegalArgumentException.class, () -> FrameBudget.of(0));
+    }
+
+    @Test
+    void firstFrameHasLowestResolutionAndAllIterations(){
+	Fractal f = fractal();
+	Fractal frame = FrameBudget.of(BUDGET_MILLIS).frameOf(f);
+	int r = FrameBudget.MAX_REDUCTION;
+	assertEquals(1360 / r + 1, frame.getWidth());
+	assertEquals(1000 / r + 1, frame.getHeight());
+	assertEquals(f.getDiscreteStep() * r, frame.getDiscreteStep(), 1e-12);
+	assertEquals(f.getXMin(), frame.getXMin());
+	assertEquals(f.getYMax(), frame.getYMax());
+	assertEquals(1000, frame.getMaxIteration());
+    }
+
+    @Test
+    void fractalFittingTheBudgetIsItsOwnFrame(){
+	FrameBudget budget = FrameBudget.of(BUDGET_MILLIS);
+	Fractal f = fractal();
+	recordAll(budget, f, 10_000_000L);
+	assertSame(f, budget.frameOf(f));
+    }
+
+    @Test
+    void slowFrameIsReducedUntilItFits(){
+	FrameBudget budget = FrameBudget.of(BUDGET_MILLIS);
+	Fractal f = fractal();
+	// twice the budget in full, half of it at half the resolution
+	recordAll(budget, f, 100_000_000L);
+	Fractal frame = budget.frameOf(f);
+	assertEquals(681, frame.getWidth());
+	assertEquals(501, frame.getHeight());
+	assertEquals(1000, frame.getMaxIteration());
+    }
+
+    @Test
+    void iterationsAreCutToAPowerOfTwo(){
+	FrameBudget budget = FrameBudget.of(BUDGET_MILLIS);
+	Fractal f = fractal();
+	// about 316 iterations fit at the lowest resolution
+	recordAll(budget, f, 10_000_000_000L);
+	Fractal frame = budget.frameOf(f);
+	assertEquals(1360 / FrameBudget.MAX_REDUCTION + 1, frame.getWidth());
+	assertEquals(256, frame.getMaxIteration());
+    }
+
+    @Test
+    void iterationsAreNotCutBelowTheMinimum(){
+	FrameBudget budget = FrameBudget.of(BUDGET_MILLIS);
+	Fractal f = fractal();
+	recordAll(budget, f, 1_000_000_000_000L);
+	assertEquals(FrameBudget.MIN_ITERATION,
+		     budget.frameOf(f).getMaxIteration());
+    }
+
+    @Test
+    void framesWithoutComputedPixelsAreIgnored(){
+	FrameBudget budget = FrameBudget.of(BUDGET_MILLIS);
+	Fractal f = fractal();
+	recordAll(budget, f, 100_000_000L);
+	// a frame only copied from its parent says nothing of the time
+	budget.record(f, 0, 1_000L);
+	assertEquals(681, budget.frameOf(f).getWidth());
+    }
+
+    @Test
+    void recordsAreAveraged(){
+	FrameBudget budget = FrameBudget.of(BUDGET_MILLIS);
+	Fractal f = fractal();
+	recordAll(budget, f, 10_000_000L);
+	// the average of 10 ms and 190 ms does not fit in full
+	recordAll(budget, f, 190_000_000L);
+	assertEquals(681, budget.frameOf(f).getWidth());
+    }
+}
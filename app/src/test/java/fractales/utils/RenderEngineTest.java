@@ -0,0 +1,242 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import fractales.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that every rendering path of RenderEngine gives the same
+ * divergence indices for the same fractal, whether the symmetric pixels
+ * are copied or not. The steps and windows are binary fractions, so that
+ * the pixels shared by a fractal and the one it is zoomed from have
+ * exactly the same coordinates in both grids
+ */
+class RenderEngineTest {
+
+    // the step of the fractals tested
+    static final double STEP = 1.0 / 256;
+
+    @BeforeAll
+    static void disableCache(){
+	RenderEngine.setCache(null);
+    }
+
+    @AfterEach
+    void restoreMirroring(){
+	RenderEngine.setMirroring(true);
+    }
+
+    // a Mandelbrot set whose real axis lies on row 256
+    static Fractal mandelbrot(){
+	return new Mandelbrot.Builder().maxIteration(500).build()
+	    .withWindow(-2.0, 1.0, STEP, 769, 513);
+    }
+
+    // a Julia set symmetric about the origin, which lies halfway between
+    // rows 256 and 257 and on column 384
+    static Fractal julia(){
+	return new Julia.Builder().maxIteration(500)
+	    .complexConstant(Complex.of(-0.4, 0.6)).build()
+	    .withWindow(-1.5, 1.0 + STEP / 2, STEP, 769, 514);
+    }
+
+    // a Julia set whose iteration function has a z term
+    static Fractal asymmetricJulia(){
+	return new Julia.Builder().maxIteration(500)
+	    .complexConstant(Complex.of(-0.4, 0.6))
+	    .iterationFunction(Complex.of(1, 0), Complex.of(0.1, 0)).build()
+	    .withWindow(-1.5, 1.0, STEP, 769, 513);
+    }
+
+    // returns the indices computed by render
+    static DivergenceBuffer render(Fractal fractal){
+	int[] pixels = new int[fractal.getWidth() * fractal.getHeight()];
+	return RenderEngine.render(fractal, true, pixels, fractal.getWidth());
+    }
+
+    // returns the indices computed by render without mirroring
+    static DivergenceBuffer renderUnmirrored(Fractal fractal){
+	RenderEngine.setMirroring(false);
+	try {
+	    return render(fractal);
+	} finally {
+	    RenderEngine.setMirroring(true);
+	}
+    }
+
+    // returns the number of pixels whose index differs, the last row and
+    // column excluded as they are not computed
+    static long differ(DivergenceBuffer expected, DivergenceBuffer actual){
+	assertEquals(expected.getWidth(), actual.getWidth());
+	assertEquals(expected.getHeight(), actual.getHeight());
+	long differ = 0;
+	for(int j = 0; j < expected.getHeight() - 1; j++){
+	    for(int i = 0; i < expected.getWidth() - 1; i++){
+		if(expected.get(i, j) != actual.get(i, j))
+		    differ++;
+	    }
+	}
+	return differ;
+    }
+
+    @Test
+    void mirroringDoesNotChangeTheIndices(){
+	for(Fractal f : new Fractal[] {mandelbrot(), julia(),
+				       asymmetricJulia()}){
+	    assertEquals(0, differ(renderUnmirrored(f), render(f)),
+			 f.toString());
+	}
+    }
+
+    // returns the number of pixels of the image copied from their
+    // symmetric pixel
+    static long mirrored(Fractal fractal){
+	return SymmetryPlan.of(fractal, fractal.getWidth() - 1,
+			       fractal.getHeight() - 1)
+	    .getMirroredPixelCount();
+    }
+
+    @Test
+    void symmetricWindowsAreMirrored(){
+	assertEquals(255L * 768, mirrored(mandelbrot()));
+	assertTrue(mirrored(julia()) > 0);
+	assertEquals(0, mirrored(asymmetricJulia()));
+	// the real axis lies a third of a step away from the grid
+	assertEquals(0, mirrored(mandelbrot().withWindow(-2.0, 1.0, 0.003,
+							 1001, 667)));
+    }
+
+    @Test
+    void bandsMatchRender(){
+	for(Fractal f : new Fractal[] {mandelbrot(), julia()}){
+	    int w = f.getWidth();
+	    int h = f.getHeight();
+	    int[] expected = new int[w * h];
+	    RenderEngine.render(f, false, expected, w);
+	    int[] actual = new int[w * h];
+	    for(int y0 = 0; y0 < h; y0 += 64){
+		int y1 = Math.min(y0 + 64, h);
+		int[] band = new int[w * (y1 - y0)];
+		RenderEngine.renderBand(f, y0, y1, band, w).join();
+		System.arraycopy(band, 0, actual, y0 * w, band.length);
+	    }
+	    assertArrayEquals(expected, actual, f.toString());
+	}
+    }
+
+    @Test
+    void zoomsMatchRender(){
+	for(Fractal f : new Fractal[] {mandelbrot(), julia()}){
+	    // the parent covers the fractal with twice its step, and its
+	    // axis is on its grid as well
+	    Fractal parent = f.withWindow(f.getXMin() - 100 * STEP,
+					  f.getYMax() + 100 * STEP,
+					  2 * STEP, 501, 371);
+	    DivergenceBuffer expected = render(f);
+	    int[] pixels = new int[f.getWidth() * f.getHeight()];
+	    DivergenceBuffer zoomed =
+		RenderEngine.renderZoom(f, parent, render(parent), pixels,
+					f.getWidth(), null);
+	    assertEquals(0, differ(expected, zoomed), "zoom in " + f);
+	    // the fractal zoomed out from its own upper left quadrant
+	    Fractal child = f.withWindow(f.getXMin(), f.getYMax(), STEP / 2,
+					 f.getWidth(), f.getHeight());
+	    zoomed = RenderEngine.renderZoom(f, child, render(child), pixels,
+					     f.getWidth(), null);
+	    assertEquals(0, differ(expected, zoomed), "zoom out " + f);
+	}
+    }
+
+    @Test
+    void quadrantZoomMatchesRender(){
+	// the default Mandelbrot set, whose real axis is off the grid
+	Fractal parent = new Mandelbrot.Builder().discreteStep(0.003).build();
+	Fractal quadrant = parent.withWindow(parent.getXMin(),
+					     parent.getYMax(), 0.0015,
+					     parent.getWidth(),
+					     parent.getHeight());
+	for(boolean mirroring : new boolean[] {true, false}){
+	    RenderEngine.setMirroring(mirroring);
+	    int[] pixels = new int[quadrant.getWidth() * quadrant.getHeight()];
+	    DivergenceBuffer zoomed =
+		RenderEngine.renderZoom(quadrant, parent, render(parent),
+					pixels, quadrant.getWidth(), null);
+	    assertEquals(0, differ(render(quadrant), zoomed),
+			 "mirroring " + mirroring);
+	}
+    }
+
+    @Test
+    void pansMatchRender(){
+	for(Fractal f : new Fractal[] {mandelbrot(), julia()}){
+	    double step = f.getDiscreteStep();
+	    // the view dragged by whole pixels, as by the controller
+	    Fractal moved = f.withWindow(f.getXMin() - 37 * step,
+					 f.getYMax() - 23 * step, step,
+					 f.getWidth(), f.getHeight());
+	    int[] pixels = new int[moved.getWidth() * moved.getHeight()];
+	    DivergenceBuffer panned =
+		RenderEngine.renderZoom(moved, f, render(f), pixels,
+					moved.getWidth(), null);
+	    assertEquals(0, differ(render(moved), panned), "pan of " + f);
+	}
+    }
+
+    @Test
+    void prefetchedQuadrantsMatchRender(){
+	Fractal parent = new Mandelbrot.Builder().discreteStep(0.003).build();
+	DivergenceBuffer parentBuffer = render(parent);
+	int w = parent.getWidth();
+	int h = parent.getHeight();
+	double step = parent.getDiscreteStep();
+	RenderCache cache = RenderCache.of(1L << 30, null, 0);
+	for(int[] corner : new int[][] {{0, 0}, {(w - 1) / 2, 0},
+					{0, (h - 1) / 2},
+					{(w - 1) / 2, (h - 1) / 2}}){
+	    // the quadrant zoomed into by the prefetch of the controller
+	    Fractal quadrant = parent.withWindow(parent.getXMin()
+						 + corner[0] * step,
+						 parent.getYMax()
+						 - corner[1] * step,
+						 step / 2, w, h);
+	    RenderEngine.setCache(cache);
+	    try {
+		RenderEngine.renderZoom(quadrant, parent, parentBuffer,
+					new int[w * h], w, null);
+	    } finally {
+		RenderEngine.setCache(null);
+	    }
+	    assertEquals(0, differ(render(quadrant), cache.get(quadrant)),
+			 quadrant.toString());
+	}
+    }
+
+    @Test
+    void vectorizedKernelMatchesScalar(){
+	boolean enabled = DivergenceIndexMatrixCalculator.isVectorized();
+	try {
+	    for(Fractal f : new Fractal[] {mandelbrot(), julia(),
+					   asymmetricJulia()}){
+		assertTrue(DivergenceIndexMatrixCalculator.setVectorized(true));
+		DivergenceBuffer vectorized = render(f);
+		DivergenceIndexMatrixCalculator.setVectorized(false);
+		assertEquals(0, differ(render(f), vectorized), f.toString());
+	    }
+	} finally {
+	    DivergenceIndexMatrixCalculator.setVectorized(enabled);
+	}
+    }
+
+    @Test
+    void marianiSilverMatchesBruteForce(){
+	// a pixel of a filament may be missed by the border of a rectangle
+	for(Fractal f : new Fractal[] {mandelbrot(), julia()}){
+	    long pixels = (long)f.getWidth() * f.getHeight();
+	    assertTrue(RenderEngine.countMarianiSilverErrors(f)
+		       <= pixels / 100_000, f.toString());
+	}
+    }
+}
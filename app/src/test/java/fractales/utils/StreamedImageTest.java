@@ -0,0 +1,63 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the image streamed band after band to a PNG file has the
+ * pixels of the image computed in memory
+ */
+class StreamedImageTest {
+
+    // the directory of the streamed files
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void disableCache(){
+	RenderEngine.setCache(null);
+    }
+
+    // asserts that the streamed image has the colors of the image in
+    // memory
+    private void assertStreamedAsInMemory(Fractal fractal)
+	throws IOException {
+	BufferedImage expected = FractalImage.of(fractal, false).createImage();
+	File file = dir.resolve(fractal.getFileName() + ".png").toFile();
+	StreamedImage.of(fractal).writeImage(file);
+	BufferedImage actual = ImageIO.read(file);
+	assertEquals(expected.getWidth(), actual.getWidth());
+	assertEquals(expected.getHeight(), actual.getHeight());
+	long differ = 0;
+	for(int y = 0; y < expected.getHeight(); y++){
+	    for(int x = 0; x < expected.getWidth(); x++){
+		if((expected.getRGB(x, y) & 0xFFFFFF)
+		   != (actual.getRGB(x, y) & 0xFFFFFF))
+		    differ++;
+	    }
+	}
+	assertEquals(0, differ, fractal.toString());
+    }
+
+    @Test
+    void defaultMandelbrotIsStreamedAsInMemory() throws IOException {
+	// 1001x667, the real axis a third of a step away from the grid
+	assertStreamedAsInMemory(new Mandelbrot.Builder().discreteStep(0.003)
+				 .build());
+    }
+
+    @Test
+    void mirroredFractalsAreStreamedAsInMemory() throws IOException {
+	assertStreamedAsInMemory(RenderEngineTest.mandelbrot());
+	assertStreamedAsInMemory(RenderEngineTest.julia());
+    }
+}
@@ -0,0 +1,76 @@
+package fractales.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import fractales.model.*;
+
+/**
+ * This program measures the time taken to compute the images of the
+ * default fractals of the command line, with a step of 0.001 so that
+ * their axes lie on the grid, with and without the copy of the symmetric
+ * pixels, and counts the pixels that differ between the two. The cache
+ * of divergence indices is disabled.
+ * Run with gradle benchmark -Pbench=fractales.utils.SymmetryBenchmark
+ */
+public class SymmetryBenchmark {
+
+    // number of timed renderings of each fractal, after one to warm up
+    private static final int RUNS = 3;
+
+    public static void main(String[] args){
+	RenderEngine.setCache(null);
+	System.out.println(RenderEngine.getParallelism() + " threads");
+	measure(new Mandelbrot.Builder().discreteStep(0.001).build());
+	measure(new Julia.Builder().discreteStep(0.001).build());
+	measure(new Julia.Builder().discreteStep(0.001)
+		.complexConstant(Complex.of(-0.4, 0.6)).build());
+	RenderEngine.shutdown();
+    }
+
+    // prints the time taken by the fractal with and without mirroring
+    private static void measure(Fractal fractal){
+	RenderEngine.setMirroring(false);
+	long full = time(fractal);
+	int[] expected = pixels(fractal);
+	RenderEngine.setMirroring(true);
+	long mirrored = time(fractal);
+	int[] actual = pixels(fractal);
+	long copied = SymmetryPlan.of(fractal, fractal.getWidth() - 1,
+				      fractal.getHeight() - 1)
+	    .getMirroredPixelCount();
+	System.out.printf("%s %dx%d : %d ms -> %d ms (x%.2f), %d pixels "
+			  + "copied, %d of %d pixels differ%n",
+			  fractal.getFileName(), fractal.getWidth(),
+			  fractal.getHeight(), full, mirrored,
+			  (double)full / mirrored, copied,
+			  differ(expected, actual), expected.length);
+    }
+
+    // returns the number of pixels that differ
+    private static long differ(int[] expected, int[] actual){
+	long differ = 0;
+	for(int i = 0; i < expected.length; i++){
+	    if(expected[i] != actual[i])
+		differ++;
+	}
+	return differ;
+    }
+
+    // returns the best time in milliseconds to compute the image
+    private static long time(Fractal fractal){
+	pixels(fractal);
+	long best = Long.MAX_VALUE;
+	for(int i = 0; i < RUNS; i++){
+	    long start = System.nanoTime();
+	    pixels(fractal);
+	    best = Math.min(best, System.nanoTime() - start);
+	}
+	return best / 1_000_000;
+    }
+
+    // returns the pixels of the image of the fractal
+    private static int[] pixels(Fractal fractal){
+	BufferedImage img = FractalImage.of(fractal, false).createImage();
+	return ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+    }
+}